@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import de.minestar.conair.network.PacketBuffer;
+import de.minestar.conair.network.codec.CodecContext;
+import de.minestar.conair.network.codec.PacketCodec;
+import de.minestar.conair.network.packets.NetworkPacket;
+import de.minestar.conair.network.utils.XmlUtils;
+
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares the binary encoding of collections with the old xml-encoding.
+ */
+public class CodecBenchmark {
+
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 10000;
+
+    public static class PlayerListPacket extends NetworkPacket {
+
+        private List<String> players;
+
+        public PlayerListPacket(List<String> players) {
+            this.players = players;
+        }
+
+        public List<String> getPlayers() {
+            return players;
+        }
+    }
+
+    public static void main(String[] args) {
+        List<String> players = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            players.add("Player_" + i);
+        }
+        PlayerListPacket packet = new PlayerListPacket(players);
+        PacketBuffer buffer = new PacketBuffer(128 * 1024);
+
+        /*
+         * XML
+         */
+        long xmlBytes = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            xmlBytes = runXml(packet, buffer);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runXml(packet, buffer);
+        }
+        long xmlTime = System.nanoTime() - start;
+
+        /*
+         * BINARY
+         */
+        PacketCodec<PlayerListPacket> codec = PacketCodec.forClass(PlayerListPacket.class);
+        long binaryBytes = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            binaryBytes = runBinary(codec, packet, buffer);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            runBinary(codec, packet, buffer);
+        }
+        long binaryTime = System.nanoTime() - start;
+
+        System.out.println("List<String> with " + players.size() + " entries, " + ITERATIONS + " iterations");
+        System.out.println("XML    : " + xmlBytes + " bytes, " + (xmlTime / ITERATIONS / 1000d) + " us/op");
+        System.out.println("Binary : " + binaryBytes + " bytes, " + (binaryTime / ITERATIONS / 1000d) + " us/op");
+    }
+
+    private static long runXml(PlayerListPacket packet, PacketBuffer buffer) {
+        buffer.clear();
+        buffer.writeString("[COLLECTION]" + XmlUtils.objectToXml(packet.getPlayers()));
+        buffer.getBuffer().flip();
+        int size = buffer.getBuffer().remaining();
+        String text = buffer.readString();
+        if (((List<?>) XmlUtils.objectFromXml(text.substring("[COLLECTION]".length()))).size() != packet.getPlayers().size()) {
+            throw new IllegalStateException("XML roundtrip failed!");
+        }
+        return size;
+    }
+
+    private static long runBinary(PacketCodec<PlayerListPacket> codec, PlayerListPacket packet, PacketBuffer buffer) {
+        buffer.clear();
+        codec.encode(packet, buffer, CodecContext.DEFAULT);
+        buffer.getBuffer().flip();
+        int size = buffer.getBuffer().remaining();
+        if (codec.decode(0, buffer, CodecContext.DEFAULT).getPlayers().size() != packet.getPlayers().size()) {
+            throw new IllegalStateException("Binary roundtrip failed!");
+        }
+        return size;
+    }
+}
@@ -1,8 +1,4 @@
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-
-import org.apache.commons.io.IOUtils;
 
 import de.minestar.conair.network.PacketType;
 import de.minestar.conair.network.client.DedicatedTCPClient;
@@ -47,8 +43,8 @@ public class Main {
                 Thread.sleep(100);
             }
 
-            File file = new File("plugins/send.jpg");
-            client1.sendPacket(new ResourcePacket(IOUtils.toByteArray(new BufferedInputStream(new FileInputStream(file)))));
+            // the file is sent in chunks, without reading it into the heap
+            client1.sendFile(new File("plugins/send.jpg"));
 
             Thread.sleep(2500);
             client1.stop();
@@ -46,4 +46,9 @@ public class TestPacketHandler extends ClientPacketHandler {
         }
     }
 
+    @Override
+    public void handleReceivedFile(File file) {
+        System.out.println("file received... " + file + " " + file.length());
+    }
+
 }
@@ -0,0 +1,127 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.minestar.conair.network.PacketType;
+import de.minestar.conair.network.client.ClientPacketHandler;
+import de.minestar.conair.network.client.DedicatedTCPClient;
+import de.minestar.conair.network.client.packets.ChatPacket;
+import de.minestar.conair.network.server.AbstractTCPServer;
+import de.minestar.conair.network.server.BlockingTCPServer;
+import de.minestar.conair.network.server.TCPServer;
+import de.minestar.conair.network.server.api.PluginManager;
+
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares latency and throughput of the selector based {@link TCPServer} with the {@link BlockingTCPServer}. One client sends chatpackets, which are relayed to all other clients.
+ */
+public class TransportBenchmark {
+
+    private static final int RECEIVERS = 8;
+    private static final int PING_MESSAGES = 2000;
+    private static final int BURST_MESSAGES = 50000;
+
+    private static class Receiver extends ClientPacketHandler {
+
+        private final AtomicLong _received = new AtomicLong();
+        private final AtomicLong _latency = new AtomicLong();
+        private volatile CountDownLatch _latch;
+        private volatile long _expected;
+
+        @SuppressWarnings("unused")
+        public void handleChatPacket(ChatPacket packet) {
+            _latency.addAndGet(System.nanoTime() - Long.parseLong(packet.getMessage()));
+            if (_received.incrementAndGet() == _expected) {
+                _latch.countDown();
+            }
+        }
+
+        private void expect(long count, CountDownLatch latch) {
+            _latch = latch;
+            _received.set(0);
+            _latency.set(0);
+            _expected = count;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        PacketType.registerPacket(ChatPacket.class);
+
+        run("Selector", new TCPServer(9100, null));
+        run("Blocking", new BlockingTCPServer(9101, null));
+        System.exit(0);
+    }
+
+    private static void run(String name, AbstractTCPServer server) throws Exception {
+        server.setPluginManager(new PluginManager(null));
+        Thread serverThread = new Thread(server);
+        serverThread.start();
+
+        DedicatedTCPClient sender = new DedicatedTCPClient("Sender", new Receiver(), "localhost", server.getPort());
+        List<Receiver> receivers = new ArrayList<Receiver>();
+        List<DedicatedTCPClient> clients = new ArrayList<DedicatedTCPClient>();
+        for (int i = 0; i < RECEIVERS; i++) {
+            Receiver receiver = new Receiver();
+            receivers.add(receiver);
+            clients.add(new DedicatedTCPClient("Receiver-" + i, receiver, "localhost", server.getPort()));
+        }
+        Thread.sleep(500);
+
+        /*
+         * LATENCY - one packet at a time
+         */
+        long latency = 0;
+        for (int i = 0; i < PING_MESSAGES; i++) {
+            CountDownLatch latch = new CountDownLatch(RECEIVERS);
+            for (Receiver receiver : receivers) {
+                receiver.expect(1, latch);
+            }
+            sender.sendPacket(new ChatPacket(Long.toString(System.nanoTime())));
+            latch.await(5, TimeUnit.SECONDS);
+            for (Receiver receiver : receivers) {
+                latency += receiver._latency.get();
+            }
+        }
+
+        /*
+         * THROUGHPUT - all packets at once
+         */
+        CountDownLatch latch = new CountDownLatch(RECEIVERS);
+        for (Receiver receiver : receivers) {
+            receiver.expect(BURST_MESSAGES, latch);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < BURST_MESSAGES; i++) {
+            sender.sendPacket(new ChatPacket(Long.toString(System.nanoTime())));
+        }
+        boolean completed = latch.await(60, TimeUnit.SECONDS);
+        long time = System.nanoTime() - start;
+
+        System.out.println(name + " : " + (latency / PING_MESSAGES / RECEIVERS / 1000d) + " us latency, " + (long) (BURST_MESSAGES * RECEIVERS / (time / 1000000000d)) + " packets/s delivered" + (completed ? "" : " (incomplete)"));
+
+        sender.stop();
+        for (DedicatedTCPClient client : clients) {
+            client.stop();
+        }
+        server.stop();
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of reusable buffers, either direct or on the heap. Buffers are grouped in size classes of powers of two from {@value #MIN_BUFFER_SIZE} bytes up to {@value #MAX_BUFFER_SIZE} bytes, larger buffers are allocated for every lease and not pooled.
+ * <p>
+ * Every thread keeps a few buffers of each size class for itself, so most leases neither lock nor allocate. All thread caches of a pool together hold at most {@value #MAX_CACHED_BYTES} bytes. Buffers which do not fit into the cache of the releasing thread go to the shared arena of their size class, or are dropped if it is full. A thread, which ends while the pools are still used, should {@link #releaseThreadCaches() release} its caches.
+ * <p>
+ * Every buffer must be {@link #release(ByteBuffer) released} exactly once, afterwards it must not be used anymore. The number of {@link #getOutstandingLeases() outstanding leases} shows buffers, which were never released.
+ */
+public final class BufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 1 << 8;
+    public static final int MAX_BUFFER_SIZE = 1 << 20;
+    public static final long MAX_CACHED_BYTES = 16L * 1024 * 1024;
+
+    private static final int MIN_SHIFT = 8;
+    private static final int SIZE_CLASSES = 20 - MIN_SHIFT + 1;
+    // every cache and arena holds up to this many bytes per size class
+    private static final int THREAD_CACHE_BYTES = 256 * 1024;
+    private static final int ARENA_BYTES = 4 * 1024 * 1024;
+
+    private static final BufferPool DIRECT = new BufferPool(true);
+    private static final BufferPool HEAP = new BufferPool(false);
+
+    private final boolean _direct;
+    private final ArrayBlockingQueue<ByteBuffer>[] _arenas;
+    private final ThreadLocal<ThreadCache> _threadCache;
+
+    // metrics
+    private final AtomicLong _leases = new AtomicLong();
+    private final AtomicLong _releases = new AtomicLong();
+    private final AtomicLong _allocations = new AtomicLong();
+    // the bytes in all thread caches
+    private final AtomicLong _cachedBytes = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    private BufferPool(boolean direct) {
+        _direct = direct;
+        _arenas = (ArrayBlockingQueue<ByteBuffer>[]) new ArrayBlockingQueue<?>[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            _arenas[i] = new ArrayBlockingQueue<ByteBuffer>(Math.max(1, ARENA_BYTES >> (MIN_SHIFT + i)));
+        }
+        _threadCache = new ThreadLocal<ThreadCache>() {
+            @Override
+            protected ThreadCache initialValue() {
+                return new ThreadCache();
+            }
+        };
+    }
+
+    /**
+     * @return the pool of direct buffers, which are used for the frames.
+     */
+    public static BufferPool getDirect() {
+        return DIRECT;
+    }
+
+    /**
+     * @return the pool of heap buffers.
+     */
+    public static BufferPool getHeap() {
+        return HEAP;
+    }
+
+    /**
+     * Lease a buffer. Its position is 0 and its limit is the requested size, the content is undefined.
+     *
+     * @param size
+     *            the size in bytes
+     *
+     * @return the buffer.
+     */
+    public ByteBuffer lease(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size must not be negative!");
+        }
+        _leases.incrementAndGet();
+        final int sizeClass = getSizeClass(size);
+        ByteBuffer buffer = null;
+        if (sizeClass < SIZE_CLASSES) {
+            buffer = _threadCache.get().poll(sizeClass);
+            if (buffer != null) {
+                _cachedBytes.addAndGet(-buffer.capacity());
+            } else {
+                buffer = _arenas[sizeClass].poll();
+            }
+        }
+        if (buffer == null) {
+            _allocations.incrementAndGet();
+            final int capacity = sizeClass < SIZE_CLASSES ? 1 << (MIN_SHIFT + sizeClass) : size;
+            buffer = _direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer, which was leased from this pool.
+     *
+     * @param buffer
+     *            the buffer itself, not a view of it
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect() != _direct) {
+            throw new IllegalArgumentException("The buffer does not belong to this pool!");
+        }
+        _releases.incrementAndGet();
+        final int capacity = buffer.capacity();
+        // buffers of other sizes were not pooled
+        if (capacity < MIN_BUFFER_SIZE || capacity > MAX_BUFFER_SIZE || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        final int sizeClass = Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT;
+        if (_cachedBytes.addAndGet(capacity) <= MAX_CACHED_BYTES && _threadCache.get().offer(sizeClass, buffer)) {
+            return;
+        }
+        _cachedBytes.addAndGet(-capacity);
+        _arenas[sizeClass].offer(buffer);
+    }
+
+    /**
+     * Move the buffers of the calling thread from its caches of both pools to the shared arenas. The thread keeps no buffers afterwards, until it leases or releases again.
+     */
+    public static void releaseThreadCaches() {
+        DIRECT.releaseThreadCache();
+        HEAP.releaseThreadCache();
+    }
+
+    private void releaseThreadCache() {
+        final ThreadCache cache = _threadCache.get();
+        _threadCache.remove();
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            ByteBuffer buffer;
+            while ((buffer = cache.poll(i)) != null) {
+                _cachedBytes.addAndGet(-buffer.capacity());
+                _arenas[i].offer(buffer);
+            }
+        }
+    }
+
+    private static int getSizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    public boolean isDirect() {
+        return _direct;
+    }
+
+    /*
+     * METRICS
+     */
+
+    /**
+     * @return the number of buffers, which were leased and not released yet.
+     */
+    public long getOutstandingLeases() {
+        return _leases.get() - _releases.get();
+    }
+
+    public long getLeases() {
+        return _leases.get();
+    }
+
+    /**
+     * @return the number of leases, which had to allocate a new buffer.
+     */
+    public long getAllocations() {
+        return _allocations.get();
+    }
+
+    /**
+     * @return the bytes, which are kept in the caches of all threads.
+     */
+    public long getCachedBytes() {
+        return _cachedBytes.get();
+    }
+
+    // The buffers of a single thread, a stack per size class
+    private static final class ThreadCache {
+        private final ByteBuffer[][] _stacks = new ByteBuffer[SIZE_CLASSES][];
+        private final int[] _sizes = new int[SIZE_CLASSES];
+
+        private ThreadCache() {
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                _stacks[i] = new ByteBuffer[Math.max(1, THREAD_CACHE_BYTES >> (MIN_SHIFT + i))];
+            }
+        }
+
+        private ByteBuffer poll(int sizeClass) {
+            final int size = _sizes[sizeClass];
+            if (size == 0) {
+                return null;
+            }
+            final ByteBuffer buffer = _stacks[sizeClass][size - 1];
+            _stacks[sizeClass][size - 1] = null;
+            _sizes[sizeClass] = size - 1;
+            return buffer;
+        }
+
+        private boolean offer(int sizeClass, ByteBuffer buffer) {
+            final int size = _sizes[sizeClass];
+            if (size == _stacks[sizeClass].length) {
+                return false;
+            }
+            _stacks[sizeClass][size] = buffer;
+            _sizes[sizeClass] = size + 1;
+            return true;
+        }
+    }
+}
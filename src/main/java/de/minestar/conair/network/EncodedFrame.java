@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.minestar.conair.network.codec.ClassDescriptorTable;
+import de.minestar.conair.network.codec.CodecContext;
+import de.minestar.conair.network.packets.NetworkPacket;
+
+/**
+ * A completely encoded frame, which can be shared by any number of connections. A packet which is sent to many clients is only encoded once, every client writes its own {@link #duplicate() view} of the same bytes.
+ * <p>
+ * The frame is reference-counted: every queue holding the frame must {@link #retain()} it and {@link #release()} it when the frame was written. The bytes are leased from the {@link BufferPool#getDirect() direct pool} and returned after the last release.
+ * <p>
+ * The bytes always use the full frameheader with the 4 byte packet ID. Connections with compact packet IDs write their own header in front of the {@link #duplicatePacketData() packetdata}. The packetdata is {@link #duplicateCompressedPacketData(FrameCompression) compressed} only once for all connections.
+ * <p>
+ * A frame, which was encoded with a {@link ClassDescriptorTable}, belongs to a single connection and can only be sent in {@link FrameFormat#VERSION_2 version 2}.
+ */
+public final class EncodedFrame {
+
+    public static final int HEADER_SIZE = 8;
+
+    // marks packetdata, which does not get smaller
+    private static final ByteBuffer NOT_COMPRESSIBLE = ByteBuffer.allocate(0);
+
+    private final ByteBuffer _buffer;
+    private final ByteBuffer _data;
+    private final int _packetID;
+    private final AtomicInteger _refCount;
+    private final boolean _definesDescriptors;
+    // the compressed packetdata, leased from the heap pool
+    private volatile ByteBuffer _compressed;
+
+    private EncodedFrame(ByteBuffer data) {
+        this(data, false);
+    }
+
+    private EncodedFrame(ByteBuffer data, boolean definesDescriptors) {
+        _buffer = data;
+        _data = data.asReadOnlyBuffer();
+        _packetID = data.getInt(data.position() + 4);
+        _refCount = new AtomicInteger(1);
+        _definesDescriptors = definesDescriptors;
+    }
+
+    /**
+     * Encode a packet into a new frame. The frame has an initial referencecount of 1, which belongs to the caller.
+     *
+     * @param packet
+     *            the packet
+     * @param context
+     *            the context of the connection
+     *
+     * @return the frame, or <code>null</code> if the packet could not be encoded.
+     */
+    public static EncodedFrame encode(NetworkPacket packet, CodecContext context) {
+        final ClassDescriptorTable descriptorTable = context.getClassDescriptorTable();
+        // the scratch is leased for this packet, the pool keeps it in the cache of the thread
+        PacketBuffer scratch = PacketBuffer.lease(BufferPool.getDirect(), FrameDecoder.DEFAULT_BUFFER_SIZE);
+        try {
+            while (true) {
+                scratch.clear();
+                try {
+                    if (!packet.pack(scratch, context)) {
+                        if (descriptorTable != null) {
+                            descriptorTable.rollback();
+                        }
+                        return null;
+                    }
+                    break;
+                } catch (BufferOverflowException e) {
+                    // the descriptors of the failed attempt are written again
+                    if (descriptorTable != null) {
+                        descriptorTable.rollback();
+                    }
+                    // the packet is too large for the buffer, so we try again with a larger one
+                    int capacity = scratch.getBuffer().capacity() * 2;
+                    if (capacity > FrameDecoder.DEFAULT_MAX_FRAME_SIZE) {
+                        System.out.println("ERROR: Packet '" + packet.getClass().getSimpleName() + "' is too large!");
+                        return null;
+                    }
+                    scratch.release();
+                    scratch = PacketBuffer.lease(BufferPool.getHeap(), capacity);
+                }
+            }
+            scratch.getBuffer().flip();
+            final boolean definesDescriptors = descriptorTable != null && descriptorTable.hasPendingSlots();
+            if (descriptorTable != null) {
+                descriptorTable.commit();
+            }
+            return wrap(scratch.getBuffer(), definesDescriptors);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Copy an already encoded frame.
+     *
+     * @param frame
+     *            the bytes of the frame, from position to limit
+     *
+     * @return the frame.
+     */
+    public static EncodedFrame wrap(ByteBuffer frame) {
+        return wrap(frame, false);
+    }
+
+    private static EncodedFrame wrap(ByteBuffer frame, boolean definesDescriptors) {
+        ByteBuffer data = BufferPool.getDirect().lease(frame.remaining());
+        data.put(frame);
+        data.flip();
+        return new EncodedFrame(data, definesDescriptors);
+    }
+
+    /**
+     * Copy a frame as returned by the {@link FrameDecoder}, so it can be relayed without decoding it. The header and the separator are written again.
+     *
+     * @param packetID
+     *            the ID of the packet
+     * @param packetData
+     *            the packetdata of the received frame
+     *
+     * @return the frame.
+     */
+    public static EncodedFrame copyOf(int packetID, ByteBuffer packetData) {
+        ByteBuffer data = BufferPool.getDirect().lease(HEADER_SIZE + packetData.remaining() + 1);
+        data.putInt(HEADER_SIZE + packetData.remaining());
+        data.putInt(packetID);
+        data.put(packetData);
+        data.put(NetworkPacket.PACKET_SEPERATOR);
+        data.flip();
+        return new EncodedFrame(data);
+    }
+
+    /**
+     * Get a new view of the frame, which can be written independently of all other views.
+     *
+     * @return the view.
+     */
+    public ByteBuffer duplicate() {
+        return _data.duplicate();
+    }
+
+    /**
+     * Get a new view of the packetdata, without the frameheader and the separator.
+     *
+     * @return the view.
+     */
+    public ByteBuffer duplicatePacketData() {
+        ByteBuffer view = _data.duplicate();
+        view.position(view.position() + HEADER_SIZE);
+        view.limit(view.limit() - 1);
+        return view;
+    }
+
+    /**
+     * Get a new view of the compressed packetdata. The packetdata is compressed by the first caller, all other connections share the result. This method is threadsafe.
+     *
+     * @param compression
+     *            the compression of the calling connection
+     *
+     * @return the view, or <code>null</code> if the packetdata does not get smaller.
+     */
+    public ByteBuffer duplicateCompressedPacketData(FrameCompression compression) {
+        ByteBuffer compressed = _compressed;
+        if (compressed == null) {
+            synchronized (this) {
+                compressed = _compressed;
+                if (compressed == null) {
+                    compressed = compression.compress(duplicatePacketData());
+                    if (compressed == null) {
+                        // a closed compression does not decide for the other connections
+                        if (compression.isClosed()) {
+                            return null;
+                        }
+                        compressed = NOT_COMPRESSIBLE;
+                    }
+                    _compressed = compressed;
+                }
+            }
+        }
+        return compressed == NOT_COMPRESSIBLE ? null : compressed.asReadOnlyBuffer();
+    }
+
+    public int getSize() {
+        return _data.remaining();
+    }
+
+    /**
+     * @return the size of the packetdata, without the frameheader and the separator.
+     */
+    public int getPacketDataSize() {
+        return _data.remaining() - HEADER_SIZE - 1;
+    }
+
+    public int getPacketID() {
+        return _packetID;
+    }
+
+    /**
+     * @return <code>true</code>, if the frame assigns slots of a {@link ClassDescriptorTable}. The receiver must decode it before all later frames, so it is never fragmented.
+     */
+    public boolean definesDescriptors() {
+        return _definesDescriptors;
+    }
+
+    public EncodedFrame retain() {
+        _refCount.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Release one reference of the frame.
+     *
+     * @return <code>true</code>, if this was the last reference.
+     */
+    public boolean release() {
+        int refCount = _refCount.decrementAndGet();
+        if (refCount < 0) {
+            throw new IllegalStateException("EncodedFrame was released too often!");
+        }
+        if (refCount == 0) {
+            BufferPool.getDirect().release(_buffer);
+            final ByteBuffer compressed = _compressed;
+            if (compressed != null && compressed != NOT_COMPRESSIBLE) {
+                BufferPool.getHeap().release(compressed);
+            }
+            return true;
+        }
+        return false;
+    }
+}
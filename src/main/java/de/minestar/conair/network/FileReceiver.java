@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.minestar.conair.network.codec.CodecContext;
+import de.minestar.conair.network.codec.PacketCodec;
+import de.minestar.conair.network.codec.PacketView;
+import de.minestar.conair.network.packets.FileChunkPacket;
+
+/**
+ * Writes the received chunks of a {@link FileTransfer} into files. A file is preallocated with its full size on its first chunk, every payload is written from the received frame directly to its position in the file. The chunks are never decoded into packets, so a file is never held in the heap.
+ * <p>
+ * Files are only received after a {@link #setDirectory(File) directory} was set, until then all chunks are dropped. A received file never replaces an existing one, it gets a new name instead. Files larger than the {@link #setMaxFileSize(long) maximum size} and files beyond {@link #MAX_OPEN_FILES} at the same time are discarded.
+ * <p>
+ * Chunks may arrive in any order, because a smaller chunk overtakes a larger one, which the server writes in fragments. A chunk, which overlaps an already received range, discards the file. A file is complete as soon as all of its bytes were received.
+ * <p>
+ * A receiver belongs to the reading thread of a single connection.
+ */
+public final class FileReceiver {
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 64L * 1024 * 1024;
+    public static final int MAX_OPEN_FILES = 16;
+
+    // the IDs of discarded files are remembered, so their later chunks do not start them again
+    private static final int MAX_DISCARDED_FILES = 64;
+    private static final int MAX_NAME_ATTEMPTS = 100;
+
+    private final Map<Long, ReceivingFile> _files;
+    private final Map<Long, Boolean> _discardedFiles;
+    private volatile File _directory;
+    private volatile long _maxFileSize;
+
+    public FileReceiver() {
+        _files = new HashMap<Long, ReceivingFile>();
+        _discardedFiles = new LinkedHashMap<Long, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > MAX_DISCARDED_FILES;
+            }
+        };
+        _maxFileSize = DEFAULT_MAX_FILE_SIZE;
+    }
+
+    public File getDirectory() {
+        return _directory;
+    }
+
+    /**
+     * Set the directory for all files, which are started afterwards. This method is threadsafe.
+     *
+     * @param directory
+     *            the directory, or <code>null</code> to drop all files
+     */
+    public void setDirectory(File directory) {
+        _directory = directory;
+    }
+
+    public long getMaxFileSize() {
+        return _maxFileSize;
+    }
+
+    /**
+     * Set the maximum size of all files, which are started afterwards. This method is threadsafe.
+     *
+     * @param maxFileSize
+     *            the size in bytes
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        if (maxFileSize < 0) {
+            throw new IllegalArgumentException("The maximum filesize must not be negative!");
+        }
+        _maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Write the payload of a received chunk.
+     *
+     * @param packetData
+     *            the packetdata of a {@link FileChunkPacket}, as returned by the {@link FrameDecoder}
+     *
+     * @return the file, if this was its last chunk. Otherwise <code>null</code>.
+     * @throws IOException
+     *             if the chunk is invalid or the file can not be written. The file is discarded and deleted.
+     */
+    public File receive(ByteBuffer packetData) throws IOException {
+        final PacketView<FileChunkPacket> view = PacketCodec.forClass(FileChunkPacket.class).view(FileTransfer.PACKET_ID, packetData, CodecContext.DEFAULT);
+        final long id;
+        final String fileName;
+        final long fileSize;
+        final long offset;
+        final ByteBuffer payload;
+        try {
+            id = view.getLong("_id");
+            fileName = view.getString("_fileName");
+            fileSize = view.getLong("_fileSize");
+            offset = view.getLong("_offset");
+            payload = view.getByteBuffer("_payload");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid filechunk!", e);
+        }
+
+        ReceivingFile file = _files.get(id);
+        if (file == null) {
+            final File directory = _directory;
+            if (directory == null || _discardedFiles.containsKey(id)) {
+                return null;
+            }
+            file = start(id, directory, fileName, fileSize);
+        }
+        try {
+            if (fileSize != file._size) {
+                throw new IOException("The size of '" + file._file.getName() + "' changed from " + file._size + " to " + fileSize + "!");
+            }
+            if (payload == null || offset < 0 || offset > file._size - payload.remaining()) {
+                throw new IOException("Invalid filechunk for '" + file._file.getName() + "'!");
+            }
+            file.write(offset, payload);
+        } catch (IOException e) {
+            discard(id, file);
+            throw e;
+        }
+        if (file._received < file._size) {
+            return null;
+        }
+        _files.remove(id);
+        file.close();
+        return file._file;
+    }
+
+    private ReceivingFile start(long id, File directory, String fileName, long fileSize) throws IOException {
+        try {
+            if (fileSize < 0 || fileSize > _maxFileSize) {
+                throw new IOException("Invalid filesize of '" + fileName + "': " + fileSize);
+            }
+            if (_files.size() >= MAX_OPEN_FILES) {
+                throw new IOException("Too many files are received at once, '" + fileName + "' is dropped!");
+            }
+            final ReceivingFile file;
+            try {
+                file = new ReceivingFile(directory, getSafeName(fileName), fileSize);
+            } catch (IllegalArgumentException e) {
+                // the name is no valid path on this system
+                throw new IOException("Invalid filename: " + fileName, e);
+            }
+            _files.put(id, file);
+            return file;
+        } catch (IOException e) {
+            _discardedFiles.put(id, Boolean.TRUE);
+            throw e;
+        }
+    }
+
+    private void discard(long id, ReceivingFile file) {
+        _files.remove(id);
+        _discardedFiles.put(id, Boolean.TRUE);
+        file.close();
+        file.delete();
+    }
+
+    // only the name is used, the sender must not choose the directory
+    private static String getSafeName(String fileName) throws IOException {
+        final String name = fileName == null ? "" : new File(fileName).getName();
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            throw new IOException("Invalid filename: " + fileName);
+        }
+        return name;
+    }
+
+    /**
+     * Close and delete all files, which are not complete.
+     */
+    public void close() {
+        for (final ReceivingFile file : _files.values()) {
+            file.close();
+            file.delete();
+        }
+        _files.clear();
+        _discardedFiles.clear();
+    }
+
+    // A file, which is being received
+    private static final class ReceivingFile {
+        private final File _file;
+        private final long _size;
+        private final FileChannel _channel;
+        // the received ranges, from their start to their end
+        private final TreeMap<Long, Long> _ranges;
+        private long _received;
+
+        private ReceivingFile(File directory, String name, long size) throws IOException {
+            _size = size;
+            _ranges = new TreeMap<Long, Long>();
+            // an existing file is never replaced
+            final int extension = name.lastIndexOf('.') > 0 ? name.lastIndexOf('.') : name.length();
+            File file = new File(directory, name);
+            FileChannel channel = null;
+            for (int attempt = 1; channel == null; attempt++) {
+                try {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                } catch (FileAlreadyExistsException e) {
+                    if (attempt == MAX_NAME_ATTEMPTS) {
+                        throw e;
+                    }
+                    file = new File(directory, name.substring(0, extension) + " (" + attempt + ")" + name.substring(extension));
+                }
+            }
+            _file = file;
+            _channel = channel;
+            if (size > 0) {
+                try {
+                    _channel.write(ByteBuffer.allocate(1), size - 1);
+                } catch (IOException e) {
+                    close();
+                    delete();
+                    throw e;
+                }
+            }
+        }
+
+        private void write(long offset, ByteBuffer payload) throws IOException {
+            final long end = offset + payload.remaining();
+            if (end == offset) {
+                return;
+            }
+            // a chunk must not write a range twice
+            final Map.Entry<Long, Long> before = _ranges.floorEntry(offset);
+            final Map.Entry<Long, Long> after = _ranges.ceilingEntry(offset);
+            if ((before != null && before.getValue() > offset) || (after != null && after.getKey() < end)) {
+                throw new IOException("Overlapping filechunk for '" + _file.getName() + "' at " + offset + "!");
+            }
+            long position = offset;
+            while (payload.hasRemaining()) {
+                position += _channel.write(payload, position);
+            }
+            _received += end - offset;
+
+            // adjacent ranges are merged, so chunks in order keep a single range
+            long start = offset;
+            long stop = end;
+            if (before != null && before.getValue() == offset) {
+                start = before.getKey();
+            }
+            if (after != null && after.getKey() == end) {
+                stop = after.getValue();
+                _ranges.remove(after.getKey());
+            }
+            _ranges.put(start, stop);
+        }
+
+        private void close() {
+            try {
+                _channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void delete() {
+            if (!_file.delete()) {
+                System.out.println("ERROR: Could not delete '" + _file + "'!");
+            }
+        }
+    }
+}
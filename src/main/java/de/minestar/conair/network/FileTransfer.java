@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+import de.minestar.conair.network.codec.CodecContext;
+import de.minestar.conair.network.codec.PacketCodec;
+import de.minestar.conair.network.packets.FileChunkPacket;
+import de.minestar.conair.network.packets.NetworkPacket;
+
+/**
+ * A file, which is sent as a sequence of {@link FileChunkPacket}s. The file is never read into the heap: the {@link FrameWriter} writes the header and the fields of every chunk and then hands the bytes of the chunk to {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ * <p>
+ * Every chunk is a complete frame, so the server relays the file chunk by chunk like any other broadcast packet. Chunks are never compressed or fragmented. A file is sent as at least one chunk, so empty files arrive as well.
+ */
+public final class FileTransfer {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The ID of the {@link FileChunkPacket}s.
+     */
+    public static final int PACKET_ID = PacketRegistry.getUniqueID(FileChunkPacket.class.getName());
+
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    private final long _id;
+    private final String _fileName;
+    private final FileChannel _channel;
+    private final long _size;
+    private final int _chunkSize;
+    // the start of the next chunk
+    private long _position;
+    private int _chunks;
+
+    // the current chunk: the header with the fields, the region of the file and the separator of version 1
+    private final ByteBuffer[] _head;
+    private final PacketBuffer _fields;
+    private final ByteBuffer _separator;
+    private long _chunkPosition;
+    private long _chunkEnd;
+    private boolean _chunkStarted;
+
+    public FileTransfer(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Open a file for sending.
+     *
+     * @param file
+     *            the file, only its name is sent
+     * @param chunkSize
+     *            the maximum number of bytes of the file in one chunk
+     * @throws IOException
+     *             if the file can not be opened
+     */
+    public FileTransfer(File file, int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunksize must be positive!");
+        }
+        _id = ThreadLocalRandom.current().nextLong();
+        _fileName = file.getName();
+        _channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        _size = _channel.size();
+        _chunkSize = chunkSize;
+        _fields = new PacketBuffer(ByteBuffer.allocate(64 + PacketBuffer.getUTF8Length(_fileName)));
+        _head = new ByteBuffer[] { ByteBuffer.allocate(FrameFormat.MAX_HEADER_SIZE), _fields.getBuffer() };
+        _separator = ByteBuffer.wrap(new byte[] { NetworkPacket.PACKET_SEPERATOR });
+    }
+
+    public long getID() {
+        return _id;
+    }
+
+    public String getFileName() {
+        return _fileName;
+    }
+
+    public long getSize() {
+        return _size;
+    }
+
+    /**
+     * @return <code>true</code>, if a chunk was started and is not completely written yet.
+     */
+    boolean isChunkStarted() {
+        return _chunkStarted;
+    }
+
+    /**
+     * @return <code>true</code>, if all chunks were written.
+     */
+    boolean isDone() {
+        return !_chunkStarted && _chunks > 0 && _position >= _size;
+    }
+
+    /**
+     * Prepare the next chunk.
+     *
+     * @param packetIDMap
+     *            the compact packet IDs of the connection, or <code>null</code> for {@link FrameFormat#VERSION_1 version 1}
+     */
+    void startChunk(PacketIDMap packetIDMap) {
+        final int length = (int) Math.min(_chunkSize, _size - _position);
+
+        // the payload is the last field, its bytes follow the fields
+        _fields.clear();
+        PacketCodec.forClass(FileChunkPacket.class).encode(new FileChunkPacket(_id, _fileName, _size, _position, NO_PAYLOAD), _fields, CodecContext.DEFAULT);
+        _fields.writeInt(_fields.getBuffer().position() - 4, length);
+        _fields.getBuffer().flip();
+
+        final ByteBuffer header = _head[0];
+        header.clear();
+        final int packetDataSize = _fields.getBuffer().remaining() + length;
+        if (packetIDMap == null) {
+            header.putInt(EncodedFrame.HEADER_SIZE + packetDataSize);
+            header.putInt(PACKET_ID);
+            _separator.clear();
+        } else {
+            FrameFormat.writeHeader(header, packetIDMap.getWireID(PACKET_ID), PACKET_ID, 0, packetDataSize);
+            _separator.position(_separator.limit());
+        }
+        header.flip();
+
+        _chunkPosition = _position;
+        _chunkEnd = _position + length;
+        _position = _chunkEnd;
+        _chunks++;
+        _chunkStarted = true;
+    }
+
+    /**
+     * Continue writing the current chunk.
+     *
+     * @param channel
+     *            the channel
+     *
+     * @return the number of bytes written.
+     * @throws IOException
+     *             if the file can not be read or the channel can not be written
+     */
+    long writeChunk(GatheringByteChannel channel) throws IOException {
+        long written = 0;
+        if (_head[1].hasRemaining()) {
+            written += channel.write(_head);
+            if (_head[1].hasRemaining()) {
+                return written;
+            }
+        }
+        while (_chunkPosition < _chunkEnd) {
+            final long n = _channel.transferTo(_chunkPosition, _chunkEnd - _chunkPosition, channel);
+            if (n <= 0) {
+                if (_chunkPosition >= _channel.size()) {
+                    throw new IOException("File '" + _fileName + "' was truncated!");
+                }
+                return written;
+            }
+            _chunkPosition += n;
+            written += n;
+        }
+        if (_separator.hasRemaining()) {
+            written += channel.write(_separator);
+            if (_separator.hasRemaining()) {
+                return written;
+            }
+        }
+        _chunkStarted = false;
+        return written;
+    }
+
+    void close() {
+        try {
+            _channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
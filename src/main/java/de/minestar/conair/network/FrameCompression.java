@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the frames of a single connection. Frames are compressed, if their packetdata is at least as large as the threshold and the compressed data is smaller. A compressed frame carries the flag {@link FrameFormat#FLAG_COMPRESSED}, its packetdata is <code>[varint uncompressed size][deflated data]</code>.
+ * <p>
+ * The {@link Deflater} is used by the writing thread and the {@link Inflater} by the reading thread. Both are created on their first use and kept until {@link #close()}, so no frame needs a new zlib stream. They are fed in chunks of {@link #CHUNK_SIZE}, so the scratch buffers do not grow with the frames.
+ */
+public final class FrameCompression {
+
+    /**
+     * Frames are never compressed.
+     */
+    public static final int DISABLED = 0;
+
+    /**
+     * The size of the chunks, which are fed into the zlib streams.
+     */
+    public static final int CHUNK_SIZE = 16 * 1024;
+
+    // larger uncompressed packetdata is not kept after it was handed out
+    private static final int MAX_KEPT_OUTPUT_SIZE = FrameDecoder.DEFAULT_BUFFER_SIZE;
+
+    private volatile int _threshold;
+    private final int _level;
+
+    // the writer and the reader do not block each other
+    private final Object _deflaterLock = new Object();
+    private final Object _inflaterLock = new Object();
+    private Deflater _deflater;
+    private final byte[] _deflaterInput = new byte[CHUNK_SIZE];
+    private Inflater _inflater;
+    private final byte[] _inflaterInput = new byte[CHUNK_SIZE];
+    // catches output beyond the announced size
+    private final byte[] _inflaterOverflow = new byte[1];
+    private ByteBuffer _inflaterOutput = ByteBuffer.allocate(0);
+    private volatile boolean _closed;
+
+    // metrics
+    private final AtomicLong _compressedFrames = new AtomicLong();
+    private final AtomicLong _bytesBeforeCompression = new AtomicLong();
+    private final AtomicLong _bytesAfterCompression = new AtomicLong();
+    private final AtomicLong _compressionNanos = new AtomicLong();
+    private final AtomicLong _decompressedFrames = new AtomicLong();
+    private final AtomicLong _decompressionNanos = new AtomicLong();
+
+    public FrameCompression() {
+        this(DISABLED, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param threshold
+     *            the minimum size of the packetdata, or {@link #DISABLED}
+     * @param level
+     *            the level of the {@link Deflater}
+     */
+    public FrameCompression(int threshold, int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compressionlevel: " + level);
+        }
+        setThreshold(threshold);
+        _level = level;
+    }
+
+    public int getThreshold() {
+        return _threshold;
+    }
+
+    /**
+     * Set the minimum size of the packetdata, which is compressed. This method is threadsafe.
+     *
+     * @param threshold
+     *            the size in bytes, or {@link #DISABLED}
+     */
+    public void setThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("The threshold must not be negative!");
+        }
+        _threshold = threshold;
+    }
+
+    /**
+     * @param packetDataSize
+     *            the size of the packetdata
+     * @return <code>true</code>, if a frame of this size should be compressed.
+     */
+    public boolean shouldCompress(int packetDataSize) {
+        final int threshold = _threshold;
+        return threshold != DISABLED && packetDataSize >= threshold;
+    }
+
+    /**
+     * Compress the packetdata of a frame.
+     *
+     * @param packetData
+     *            the packetdata, from position to limit. The buffer itself is not changed.
+     *
+     * @return the compressed packetdata, or <code>null</code> if it would not be smaller. The buffer is leased from the {@link BufferPool#getHeap() heap pool} and must be released by the caller.
+     */
+    public ByteBuffer compress(ByteBuffer packetData) {
+        synchronized (_deflaterLock) {
+            return compressLocked(packetData);
+        }
+    }
+
+    private ByteBuffer compressLocked(ByteBuffer packetData) {
+        if (_closed) {
+            return null;
+        }
+        final long start = System.nanoTime();
+        final int size = packetData.remaining();
+        if (_deflater == null) {
+            _deflater = new Deflater(_level, true);
+        }
+        // the compressed data must fit behind the size into the length of the uncompressed data
+        ByteBuffer result = BufferPool.getHeap().lease(size);
+        PacketBuffer.writeVarInt(result, size);
+        final byte[] output = result.array();
+        final int outputOffset = result.arrayOffset();
+        final ByteBuffer input = packetData.duplicate();
+        _deflater.reset();
+        boolean finishing = false;
+        int length = result.position();
+        while (!_deflater.finished() && length < size) {
+            if (!finishing && _deflater.needsInput()) {
+                if (input.hasRemaining()) {
+                    final int chunk = Math.min(input.remaining(), CHUNK_SIZE);
+                    input.get(_deflaterInput, 0, chunk);
+                    _deflater.setInput(_deflaterInput, 0, chunk);
+                } else {
+                    _deflater.finish();
+                    finishing = true;
+                }
+            }
+            length += _deflater.deflate(output, outputOffset + length, size - length);
+        }
+        final boolean smaller = _deflater.finished() && length < size;
+
+        if (smaller) {
+            result.position(0);
+            result.limit(length);
+            _compressedFrames.incrementAndGet();
+            _bytesBeforeCompression.addAndGet(size);
+            _bytesAfterCompression.addAndGet(length);
+        } else {
+            BufferPool.getHeap().release(result);
+            result = null;
+        }
+        _compressionNanos.addAndGet(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Decompress the packetdata of a frame. The returned buffer is reused and only valid until the next call, a buffer larger than {@link FrameDecoder#DEFAULT_BUFFER_SIZE} is not kept.
+     *
+     * @param packetData
+     *            the compressed packetdata, from position to limit
+     * @param maxSize
+     *            the maximum size of the uncompressed packetdata
+     *
+     * @return the uncompressed packetdata.
+     * @throws IOException
+     *             if the data is corrupted
+     */
+    public ByteBuffer decompress(ByteBuffer packetData, int maxSize) throws IOException {
+        synchronized (_inflaterLock) {
+            return decompressLocked(packetData, maxSize);
+        }
+    }
+
+    private ByteBuffer decompressLocked(ByteBuffer packetData, int maxSize) throws IOException {
+        if (_closed) {
+            throw new IOException("The compression is closed!");
+        }
+        final long start = System.nanoTime();
+        final int size = readSize(packetData);
+        if (size < 0 || size > maxSize) {
+            throw new IOException("Invalid uncompressed size: " + size);
+        }
+        if (_inflater == null) {
+            _inflater = new Inflater(true);
+        }
+        ByteBuffer output = _inflaterOutput;
+        if (output.capacity() < size) {
+            output = ByteBuffer.allocate(size);
+            if (size <= MAX_KEPT_OUTPUT_SIZE) {
+                _inflaterOutput = output;
+            }
+        }
+
+        _inflater.reset();
+        boolean padded = false;
+        int length = 0;
+        try {
+            while (!_inflater.finished()) {
+                if (_inflater.needsInput()) {
+                    if (packetData.hasRemaining()) {
+                        final int chunk = Math.min(packetData.remaining(), CHUNK_SIZE);
+                        packetData.get(_inflaterInput, 0, chunk);
+                        _inflater.setInput(_inflaterInput, 0, chunk);
+                    } else if (!padded) {
+                        // the inflater needs an extra byte behind raw deflate data
+                        _inflaterInput[0] = 0;
+                        _inflater.setInput(_inflaterInput, 0, 1);
+                        padded = true;
+                    } else {
+                        break;
+                    }
+                }
+                if (length < size) {
+                    length += _inflater.inflate(output.array(), length, size - length);
+                } else if (_inflater.inflate(_inflaterOverflow) > 0) {
+                    throw new IOException("Invalid compressed frame!");
+                }
+                if (_inflater.needsDictionary()) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed frame!", e);
+        }
+        if (length != size || !_inflater.finished()) {
+            throw new IOException("Invalid compressed frame!");
+        }
+        _decompressedFrames.incrementAndGet();
+        _decompressionNanos.addAndGet(System.nanoTime() - start);
+
+        output.clear();
+        output.limit(size);
+        return output;
+    }
+
+    private static int readSize(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Invalid compressed frame!");
+            }
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0 && shift < 35);
+        return b < 0 ? -1 : value;
+    }
+
+    /**
+     * Release the zlib streams. Frames are not compressed anymore afterwards.
+     */
+    public void close() {
+        _closed = true;
+        synchronized (_deflaterLock) {
+            if (_deflater != null) {
+                _deflater.end();
+                _deflater = null;
+            }
+        }
+        synchronized (_inflaterLock) {
+            if (_inflater != null) {
+                _inflater.end();
+                _inflater = null;
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return _closed;
+    }
+
+    /*
+     * METRICS
+     */
+
+    public long getCompressedFrames() {
+        return _compressedFrames.get();
+    }
+
+    public long getBytesBeforeCompression() {
+        return _bytesBeforeCompression.get();
+    }
+
+    public long getBytesAfterCompression() {
+        return _bytesAfterCompression.get();
+    }
+
+    /**
+     * @return the size of all compressed frames divided by their uncompressed size, or <code>1</code> if nothing was compressed.
+     */
+    public double getCompressionRatio() {
+        final long before = _bytesBeforeCompression.get();
+        return before == 0 ? 1D : (double) _bytesAfterCompression.get() / before;
+    }
+
+    /**
+     * @return the time spent compressing, including frames which were sent uncompressed because they did not get smaller.
+     */
+    public long getCompressionNanos() {
+        return _compressionNanos.get();
+    }
+
+    public long getDecompressedFrames() {
+        return _decompressedFrames.get();
+    }
+
+    public long getDecompressionNanos() {
+        return _decompressionNanos.get();
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import de.minestar.conair.network.packets.NetworkPacket;
+
+/**
+ * Incremental decoder for the frames of a single connection.
+ * <p>
+ * Every frame is either in {@link FrameFormat#VERSION_1 version 1} or {@link FrameFormat#VERSION_2 version 2}, the decoder tells them apart by their first byte. Every read may contain any number of complete frames followed by an incomplete tail. The decoder hands out all complete frames and keeps the tail for the next read. If a frame does not fit into the buffer, the buffer grows up to the maximum framesize.
+ * <p>
+ * {@link FrameFormat#FLAG_FRAGMENT Fragments} are collected until their message is complete, frames between them are handed out immediately. A message may be larger than the buffer, up to the maximum messagesize.
+ */
+public final class FrameDecoder {
+
+    public static final int DEFAULT_BUFFER_SIZE = 128 * 1024;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private static final int HEADER_SIZE = 8;
+
+    private ByteBuffer _buffer;
+    private final int _initialSize;
+    private final int _maxFrameSize;
+    private boolean _reading;
+    private PacketIDMap _packetIDMap;
+    private int _packetID;
+    private int _flags;
+    private FrameCompression _compression;
+    private volatile int _maxMessageSize;
+
+    // the message of the received fragments
+    private ByteBuffer _message;
+    private boolean _assembling;
+    private int _messagePacketID;
+    private int _messageFlags;
+
+    public FrameDecoder() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public FrameDecoder(int bufferSize, int maxFrameSize) {
+        _buffer = ByteBuffer.allocateDirect(bufferSize);
+        _initialSize = bufferSize;
+        _maxFrameSize = maxFrameSize;
+        _maxMessageSize = maxFrameSize;
+        _reading = false;
+    }
+
+    /**
+     * Read from the channel into the buffer. Afterwards all complete frames must be fetched via {@link #nextFrame()} until it returns <code>null</code>.
+     *
+     * @param channel
+     *            the channel
+     *
+     * @return the number of bytes read, or <code>-1</code> if the channel has reached end-of-stream.
+     * @throws IOException
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        if (_reading) {
+            finishReading();
+        }
+        int result = channel.read(_buffer);
+        _buffer.flip();
+        _reading = true;
+        return result;
+    }
+
+    /**
+     * Get the next complete frame. The returned buffer contains the packetdata of the frame without its header and separator, the ID of the packet is returned by {@link #getPacketID()}. Compressed packetdata is already decompressed. It is only valid until the next call of {@link #nextFrame()} or {@link #readFrom(ReadableByteChannel)} and must be handled before.
+     *
+     * @return the packetdata of the next frame, or <code>null</code> if there is no complete frame left.
+     * @throws IOException
+     *             if the stream is corrupted
+     */
+    public ByteBuffer nextFrame() throws IOException {
+        while (true) {
+            ByteBuffer frame = readFrame();
+            if (frame == null) {
+                return null;
+            }
+            if ((_flags & FrameFormat.FLAG_FRAGMENT) != 0) {
+                frame = addFragment(frame);
+                if (frame == null) {
+                    continue;
+                }
+            }
+            if ((_flags & FrameFormat.FLAG_COMPRESSED) != 0) {
+                if (_compression == null) {
+                    throw new IOException("Compression was not negotiated!");
+                }
+                return _compression.decompress(frame, _maxMessageSize);
+            }
+            return frame.slice();
+        }
+    }
+
+    // Read the next complete frame, its packetdata is returned from position to limit
+    private ByteBuffer readFrame() throws IOException {
+        if (!_reading) {
+            return null;
+        }
+        final int start = _buffer.position();
+        final int available = _buffer.remaining();
+        if (available < 1) {
+            finishReading();
+            return null;
+        }
+
+        final int bodyStart;
+        final int bodyEnd;
+        final int frameEnd;
+        if (_buffer.get(start) == 0) {
+            // version 1
+            if (available < 4) {
+                finishReading();
+                return null;
+            }
+            final int size = _buffer.getInt(start);
+            if (size < HEADER_SIZE || size + 1 > _maxFrameSize) {
+                throw new IOException("Invalid framesize: " + size);
+            }
+            if (available < size + 1) {
+                finishReading();
+                ensureCapacity(size + 1);
+                return null;
+            }
+            if (_buffer.get(start + size) != NetworkPacket.PACKET_SEPERATOR) {
+                throw new IOException("Frame is not terminated!");
+            }
+            _packetID = _buffer.getInt(start + 4);
+            _flags = 0;
+            bodyStart = start + HEADER_SIZE;
+            bodyEnd = start + size;
+            frameEnd = bodyEnd + 1;
+        } else {
+            // version 2, the length is the only part which may be incomplete
+            int position = start;
+            int length = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position - start >= available) {
+                    finishReading();
+                    return null;
+                }
+                b = _buffer.get(position++);
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0 && shift < 35);
+            if (b < 0 || length < 1 || position - start + length > _maxFrameSize) {
+                throw new IOException("Invalid framesize: " + length);
+            }
+            frameEnd = position + length;
+            // the only boundscheck, the rest of the header is read within the frame
+            if (frameEnd - start > available) {
+                finishReading();
+                ensureCapacity(frameEnd - start);
+                return null;
+            }
+
+            try {
+                int type = 0;
+                shift = 0;
+                do {
+                    b = _buffer.get(position++);
+                    type |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0 && shift < 35);
+                _flags = (type & 1) != 0 ? _buffer.get(position++) & 0xFF : 0;
+                final int wireID = type >>> 1;
+                if (wireID == PacketIDMap.UNMAPPED) {
+                    _packetID = _buffer.getInt(position);
+                    position += 4;
+                } else if (_packetIDMap != null) {
+                    _packetID = _packetIDMap.getPacketID(wireID);
+                } else {
+                    throw new IOException("Unknown wire ID: " + wireID);
+                }
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IOException("Invalid frameheader!", e);
+            }
+            if (position > frameEnd) {
+                throw new IOException("Invalid frameheader!");
+            }
+            if ((_flags & ~FrameFormat.KNOWN_FLAGS) != 0) {
+                throw new IOException("Unsupported frameflags: " + _flags);
+            }
+            bodyStart = position;
+            bodyEnd = frameEnd;
+        }
+        _buffer.position(frameEnd);
+
+        final ByteBuffer frame = _buffer.duplicate();
+        frame.limit(bodyEnd);
+        frame.position(bodyStart);
+        return frame;
+    }
+
+    // Add a fragment to the current message, returns the message once it is complete
+    private ByteBuffer addFragment(ByteBuffer fragment) throws IOException {
+        if (!_assembling) {
+            // the first fragment starts with the size of the message
+            final int size = readMessageSize(fragment);
+            if (size < 1 || size > _maxMessageSize) {
+                throw new IOException("Invalid messagesize: " + size);
+            }
+            if (_message == null || _message.capacity() < size) {
+                _message = ByteBuffer.allocate(size);
+            }
+            _message.clear();
+            _message.limit(size);
+            _assembling = true;
+            _messagePacketID = _packetID;
+            _messageFlags = _flags & ~FrameFormat.FLAG_FRAGMENT;
+        } else if (_packetID != _messagePacketID) {
+            throw new IOException("Fragment of another message!");
+        }
+        if (fragment.remaining() > _message.remaining()) {
+            throw new IOException("Fragment exceeds its message!");
+        }
+        _message.put(fragment);
+        if (_message.hasRemaining()) {
+            return null;
+        }
+        _assembling = false;
+        _packetID = _messagePacketID;
+        _flags = _messageFlags;
+        final ByteBuffer message = _message;
+        message.flip();
+        // a large message is not kept after it was handed out
+        if (message.capacity() > _initialSize) {
+            _message = null;
+        }
+        return message;
+    }
+
+    private static int readMessageSize(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Invalid fragment!");
+            }
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0 && shift < 35);
+        return b < 0 ? -1 : value;
+    }
+
+    /**
+     * @return the ID of the packet in the frame, which was returned by the last call of {@link #nextFrame()}.
+     */
+    public int getPacketID() {
+        return _packetID;
+    }
+
+    /**
+     * @return the flags of the frame, which was returned by the last call of {@link #nextFrame()}.
+     */
+    public int getFlags() {
+        return _flags;
+    }
+
+    /**
+     * Set the compact packet IDs, which the other side may use for its version 2 frames.
+     *
+     * @param packetIDMap
+     *            the map, or <code>null</code> if the other side only uses full packet IDs
+     */
+    public void setPacketIDMap(PacketIDMap packetIDMap) {
+        _packetIDMap = packetIDMap;
+    }
+
+    /**
+     * Accept compressed frames, after the other side was told that they are understood.
+     *
+     * @param compression
+     *            the compression of the connection, or <code>null</code> to reject compressed frames
+     */
+    public void setCompression(FrameCompression compression) {
+        _compression = compression;
+    }
+
+    public int getMaxMessageSize() {
+        return _maxMessageSize;
+    }
+
+    /**
+     * Set the maximum size of a message, which is received in fragments. This method is threadsafe.
+     *
+     * @param maxMessageSize
+     *            the size in bytes
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("The messagesize must be positive!");
+        }
+        _maxMessageSize = maxMessageSize;
+    }
+
+    private void finishReading() {
+        _buffer.compact();
+        _reading = false;
+        // shrink the buffer, after a large frame was received
+        if (_buffer.capacity() > _initialSize && _buffer.position() == 0) {
+            resize(_initialSize);
+        }
+    }
+
+    private void ensureCapacity(int frameSize) {
+        if (frameSize > _buffer.capacity()) {
+            resize(Math.min(Math.max(frameSize, _buffer.capacity() * 2), _maxFrameSize));
+        }
+    }
+
+    private void resize(int capacity) {
+        final ByteBuffer newBuffer = ByteBuffer.allocateDirect(capacity);
+        _buffer.flip();
+        newBuffer.put(_buffer);
+        _buffer = newBuffer;
+    }
+}
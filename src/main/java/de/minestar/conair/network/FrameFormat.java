@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import java.nio.ByteBuffer;
+
+import de.minestar.conair.network.packets.NetworkPacket;
+
+/**
+ * The wire formats of a frame.
+ * <p>
+ * Version 1: <code>[int size][int packetID][packetdata][separator]</code>. The size counts the 8 bytes of the header and the packetdata, the frame ends with a {@link NetworkPacket#PACKET_SEPERATOR}. Every peer understands it, so it is used until the handshake negotiated a newer version.
+ * <p>
+ * Version 2: <code>[varint length][varint type][flags][int packetID][packetdata]</code>. The length counts everything behind itself. The type is the wire ID of the {@link PacketIDMap} shifted left by one, its lowest bit tells if a flags byte follows. The full packet ID is only written for the wire ID {@link PacketIDMap#UNMAPPED}. There is no separator.
+ * <p>
+ * A large message may be split into fragments, which carry the flag {@link #FLAG_FRAGMENT} and the header of the message. The packetdata of the first fragment starts with <code>[varint size of the message]</code>, the fragments follow each other in order, but other frames may be sent between them.
+ * <p>
+ * The size of a version 1 frame is smaller than 16 MB, so its first byte is always zero. The length of a version 2 frame is at least 1, so its first byte never is. A receiver therefore accepts both versions on every frame, and a sender may switch to version 2 as soon as it knows that the other side understands it.
+ */
+public final class FrameFormat {
+
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+    public static final int CURRENT_VERSION = VERSION_2;
+
+    /**
+     * The packetdata is compressed by the {@link FrameCompression} of the connection.
+     */
+    public static final int FLAG_COMPRESSED = 1;
+
+    /**
+     * The packetdata is a part of a larger message. The other flags of the message are set on every fragment.
+     */
+    public static final int FLAG_FRAGMENT = 2;
+
+    /**
+     * The flags this version understands. Frames with any other flag are rejected.
+     */
+    public static final int KNOWN_FLAGS = FLAG_COMPRESSED | FLAG_FRAGMENT;
+
+    // varint length, varint type, flags and the full packet ID
+    public static final int MAX_HEADER_SIZE = 5 + 5 + 1 + 4;
+
+    private FrameFormat() {
+    }
+
+    /**
+     * Write the header of a version 2 frame.
+     *
+     * @param header
+     *            the buffer, at least {@link #MAX_HEADER_SIZE} bytes
+     * @param wireID
+     *            the wire ID of the packet, or {@link PacketIDMap#UNMAPPED}
+     * @param packetID
+     *            the full ID of the packet
+     * @param flags
+     *            the flags of the frame
+     * @param packetDataSize
+     *            the size of the packetdata behind the header
+     */
+    public static void writeHeader(ByteBuffer header, int wireID, int packetID, int flags, int packetDataSize) {
+        final int type = (wireID << 1) | (flags != 0 ? 1 : 0);
+        int length = PacketBuffer.getVarIntSize(type) + packetDataSize;
+        if (flags != 0) {
+            length++;
+        }
+        if (wireID == PacketIDMap.UNMAPPED) {
+            length += 4;
+        }
+        PacketBuffer.writeVarInt(header, length);
+        PacketBuffer.writeVarInt(header, type);
+        if (flags != 0) {
+            header.put((byte) flags);
+        }
+        if (wireID == PacketIDMap.UNMAPPED) {
+            header.putInt(packetID);
+        }
+    }
+}
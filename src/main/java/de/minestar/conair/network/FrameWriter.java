@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Outgoing queue of {@link EncodedFrame}s for a single connection.
+ * <p>
+ * Every {@link #write(GatheringByteChannel)} hands as many pending frames as possible to the channel in a single gathering write, until the writebudget is reached. Small packets therefore do not cost a syscall each. Frames which were written completely are released, a partially written frame is continued with the next write.
+ * <p>
+ * The frames are shared in {@link FrameFormat#VERSION_1 version 1}. If the connection uses {@link FrameFormat#VERSION_2 version 2}, every frame gets its own header and only the packetdata of the shared frame is written behind it, or a compressed copy of it.
+ * <p>
+ * If the other side understands {@link FrameFormat#FLAG_FRAGMENT fragments}, frames larger than the fragmentsize are written in fragments. Small frames are written between the fragments, so they do not wait until a large frame is completely written. Large frames keep their order among each other. Frames {@link EncodedFrame#definesDescriptors() defining class descriptors} are never fragmented, because the receiver must apply them in order.
+ * <p>
+ * Files are written one chunk after every batch of frames, see {@link FileTransfer}. A started chunk is written completely before any other frame.
+ */
+public final class FrameWriter {
+
+    public static final int DEFAULT_WRITE_BUDGET = 256 * 1024;
+    public static final int DEFAULT_FRAGMENT_SIZE = 16 * 1024;
+
+    /**
+     * Frames are never fragmented.
+     */
+    public static final int NO_FRAGMENTS = 0;
+
+    private static final int MAX_FRAMES_PER_WRITE = 64;
+    private static final ByteBuffer NO_HEADER = ByteBuffer.allocate(0);
+
+    private final ConcurrentLinkedQueue<EncodedFrame> _frameQueue;
+    private final EncodedFrame[] _frames;
+    // two views per frame, the header and the frame itself
+    private final ByteBuffer[] _views;
+    // the compact headers, they move together with their frames
+    private final ByteBuffer[] _headers;
+    private final ByteBuffer[] _spareHeaders;
+    private int _count;
+    // the large frame, which is currently written in fragments, and the large frames behind it
+    private LargeFrame _largeFrame;
+    private final ArrayDeque<LargeFrame> _largeFrames;
+    // the file, which is currently written, and the files behind it
+    private FileTransfer _fileTransfer;
+    private final ConcurrentLinkedQueue<FileTransfer> _fileQueue;
+    private volatile int _writeBudget;
+    private volatile PacketIDMap _packetIDMap;
+    private volatile FrameCompression _compression;
+    private volatile int _fragmentSize;
+
+    public FrameWriter() {
+        this(DEFAULT_WRITE_BUDGET);
+    }
+
+    public FrameWriter(int writeBudget) {
+        _frameQueue = new ConcurrentLinkedQueue<EncodedFrame>();
+        _frames = new EncodedFrame[MAX_FRAMES_PER_WRITE];
+        _views = new ByteBuffer[MAX_FRAMES_PER_WRITE * 2];
+        _headers = new ByteBuffer[MAX_FRAMES_PER_WRITE];
+        _spareHeaders = new ByteBuffer[MAX_FRAMES_PER_WRITE];
+        for (int i = 0; i < MAX_FRAMES_PER_WRITE; i++) {
+            // the first fragment writes the size of the message behind the header
+            _headers[i] = ByteBuffer.allocate(FrameFormat.MAX_HEADER_SIZE + 5);
+        }
+        _count = 0;
+        _largeFrames = new ArrayDeque<LargeFrame>();
+        _fileQueue = new ConcurrentLinkedQueue<FileTransfer>();
+        _fragmentSize = NO_FRAGMENTS;
+        setWriteBudget(writeBudget);
+    }
+
+    /**
+     * Queue a frame. The writer takes over one reference of the frame.
+     *
+     * @param frame
+     *            the frame
+     */
+    public void add(EncodedFrame frame) {
+        _frameQueue.add(frame);
+    }
+
+    /**
+     * Queue a file. The writer closes it after it was written.
+     *
+     * @param fileTransfer
+     *            the file
+     */
+    public void addFile(FileTransfer fileTransfer) {
+        _fileQueue.add(fileTransfer);
+    }
+
+    public boolean hasDataToSend() {
+        return _count > 0 || _largeFrame != null || !_frameQueue.isEmpty() || _fileTransfer != null || !_fileQueue.isEmpty();
+    }
+
+    /**
+     * Write the pending frames into the channel. At least one frame is written, even if it is larger than the writebudget.
+     *
+     * @param channel
+     *            the channel
+     *
+     * @return the number of bytes written.
+     * @throws IOException
+     */
+    public long write(GatheringByteChannel channel) throws IOException {
+        if (_fileTransfer != null && _fileTransfer.isChunkStarted()) {
+            return writeFileChunk(channel);
+        }
+        long written = writeFrames(channel);
+        // the next chunk of a file follows every batch, which was written completely
+        if (_count == 0 && (_fileTransfer != null || !_fileQueue.isEmpty())) {
+            if (_fileTransfer == null) {
+                _fileTransfer = _fileQueue.poll();
+            }
+            _fileTransfer.startChunk(_packetIDMap);
+            written += writeFileChunk(channel);
+        }
+        return written;
+    }
+
+    private long writeFileChunk(GatheringByteChannel channel) throws IOException {
+        final long written = _fileTransfer.writeChunk(channel);
+        if (_fileTransfer.isDone()) {
+            _fileTransfer.close();
+            _fileTransfer = null;
+        }
+        return written;
+    }
+
+    private long writeFrames(GatheringByteChannel channel) throws IOException {
+        // collect the frames for this write
+        long bytes = 0;
+        for (int i = 0; i < _count * 2; i++) {
+            bytes += _views[i].remaining();
+        }
+        final PacketIDMap packetIDMap = _packetIDMap;
+        final FrameCompression compression = _compression;
+        final int fragmentSize = _fragmentSize;
+        // the bytes of small frames since the last fragment, a large frame gets its turn after a fragmentsize of them
+        int smallBytes = 0;
+        while (_count < MAX_FRAMES_PER_WRITE && bytes < _writeBudget) {
+            final EncodedFrame frame = _largeFrame != null && smallBytes >= fragmentSize ? null : _frameQueue.poll();
+            if (frame == null) {
+                if (_largeFrame == null) {
+                    break;
+                }
+                addFragment(packetIDMap);
+                smallBytes = 0;
+            } else if (packetIDMap == null) {
+                _frames[_count] = frame;
+                _views[_count * 2] = NO_HEADER;
+                _views[_count * 2 + 1] = frame.duplicate();
+            } else {
+                ByteBuffer packetData = frame.duplicatePacketData();
+                int flags = 0;
+                // the shared frame compresses its packetdata once for all connections
+                if (compression != null && compression.shouldCompress(packetData.remaining())) {
+                    final ByteBuffer compressed = frame.duplicateCompressedPacketData(compression);
+                    if (compressed != null) {
+                        packetData = compressed;
+                        flags |= FrameFormat.FLAG_COMPRESSED;
+                    }
+                }
+                if (fragmentSize != NO_FRAGMENTS && packetData.remaining() > fragmentSize && !frame.definesDescriptors()) {
+                    final LargeFrame largeFrame = new LargeFrame(frame, packetData, flags, fragmentSize);
+                    if (_largeFrame == null) {
+                        _largeFrame = largeFrame;
+                    } else {
+                        _largeFrames.add(largeFrame);
+                    }
+                    continue;
+                }
+                _frames[_count] = frame;
+                _views[_count * 2] = writeHeader(_headers[_count], frame, packetIDMap, flags, packetData.remaining());
+                _views[_count * 2 + 1] = packetData;
+                smallBytes += packetData.remaining();
+            }
+            bytes += _views[_count * 2].remaining() + _views[_count * 2 + 1].remaining();
+            _count++;
+        }
+        if (_count == 0) {
+            return 0;
+        }
+
+        final long written = channel.write(_views, 0, _count * 2);
+
+        // release all completely written frames
+        int done = 0;
+        while (done < _count && !_views[done * 2 + 1].hasRemaining()) {
+            release(done);
+            done++;
+        }
+        if (done > 0) {
+            System.arraycopy(_frames, done, _frames, 0, _count - done);
+            System.arraycopy(_views, done * 2, _views, 0, (_count - done) * 2);
+            System.arraycopy(_headers, 0, _spareHeaders, 0, done);
+            System.arraycopy(_headers, done, _headers, 0, MAX_FRAMES_PER_WRITE - done);
+            System.arraycopy(_spareHeaders, 0, _headers, MAX_FRAMES_PER_WRITE - done, done);
+            for (int i = _count - done; i < _count; i++) {
+                _frames[i] = null;
+                _views[i * 2] = null;
+                _views[i * 2 + 1] = null;
+            }
+            _count -= done;
+        }
+        return written;
+    }
+
+    // Add the next fragment of the current large frame
+    private void addFragment(PacketIDMap packetIDMap) {
+        final LargeFrame largeFrame = _largeFrame;
+        final ByteBuffer packetData = largeFrame._packetData;
+        final boolean first = packetData.position() == largeFrame._start;
+        final int size = Math.min(packetData.remaining(), largeFrame._fragmentSize);
+        final ByteBuffer header = _headers[_count];
+        header.clear();
+        final int messageSize = packetData.limit() - largeFrame._start;
+        final int wireID = packetIDMap.getWireID(largeFrame._frame.getPacketID());
+        FrameFormat.writeHeader(header, wireID, largeFrame._frame.getPacketID(), largeFrame._flags | FrameFormat.FLAG_FRAGMENT, size + (first ? PacketBuffer.getVarIntSize(messageSize) : 0));
+        if (first) {
+            PacketBuffer.writeVarInt(header, messageSize);
+        }
+        header.flip();
+        final ByteBuffer fragment = packetData.duplicate();
+        fragment.limit(fragment.position() + size);
+        packetData.position(fragment.limit());
+        _views[_count * 2] = header;
+        _views[_count * 2 + 1] = fragment;
+
+        // the last fragment releases the frame after it was written
+        if (!packetData.hasRemaining()) {
+            _frames[_count] = largeFrame._frame;
+            _largeFrame = _largeFrames.poll();
+        }
+    }
+
+    private void release(int index) {
+        if (_frames[index] != null) {
+            _frames[index].release();
+        }
+    }
+
+    private static ByteBuffer writeHeader(ByteBuffer header, EncodedFrame frame, PacketIDMap packetIDMap, int flags, int packetDataSize) {
+        header.clear();
+        FrameFormat.writeHeader(header, packetIDMap.getWireID(frame.getPacketID()), frame.getPacketID(), flags, packetDataSize);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Release all frames, which were not written yet.
+     */
+    public void clear() {
+        for (int i = 0; i < _count; i++) {
+            release(i);
+            _frames[i] = null;
+            _views[i * 2] = null;
+            _views[i * 2 + 1] = null;
+        }
+        _count = 0;
+        while (_largeFrame != null) {
+            _largeFrame.release();
+            _largeFrame = _largeFrames.poll();
+        }
+        clearQueue();
+        if (_fileTransfer == null) {
+            _fileTransfer = _fileQueue.poll();
+        }
+        while (_fileTransfer != null) {
+            _fileTransfer.close();
+            _fileTransfer = _fileQueue.poll();
+        }
+    }
+
+    /**
+     * Release all queued frames, which are not collected for a write yet. This method is threadsafe.
+     */
+    public void clearQueue() {
+        EncodedFrame frame;
+        while ((frame = _frameQueue.poll()) != null) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Write all frames, which are not collected for a write yet, in version 2 with the compact packet IDs of the map.
+     *
+     * @param packetIDMap
+     *            the map, or <code>null</code> for version 1
+     */
+    public void setPacketIDMap(PacketIDMap packetIDMap) {
+        _packetIDMap = packetIDMap;
+    }
+
+    /**
+     * Compress the packetdata of all version 2 frames, which are not collected for a write yet. Version 1 frames are never compressed.
+     *
+     * @param compression
+     *            the compression of the connection, or <code>null</code> if the other side does not understand compressed frames
+     */
+    public void setCompression(FrameCompression compression) {
+        _compression = compression;
+    }
+
+    /**
+     * Write all version 2 frames, which are larger than the fragmentsize and not collected for a write yet, in fragments.
+     *
+     * @param fragmentSize
+     *            the maximum size of the packetdata of a fragment, or {@link #NO_FRAGMENTS} if the other side does not understand fragments
+     */
+    public void setFragmentSize(int fragmentSize) {
+        if (fragmentSize < 0) {
+            throw new IllegalArgumentException("The fragmentsize must not be negative!");
+        }
+        _fragmentSize = fragmentSize;
+    }
+
+    public int getFragmentSize() {
+        return _fragmentSize;
+    }
+
+    public int getWriteBudget() {
+        return _writeBudget;
+    }
+
+    public void setWriteBudget(int writeBudget) {
+        if (writeBudget <= 0) {
+            throw new IllegalArgumentException("The writebudget must be positive!");
+        }
+        _writeBudget = writeBudget;
+    }
+
+    // A frame, which is written in fragments
+    private static final class LargeFrame {
+        private final EncodedFrame _frame;
+        private final ByteBuffer _packetData;
+        private final int _start;
+        private final int _flags;
+        private final int _fragmentSize;
+
+        private LargeFrame(EncodedFrame frame, ByteBuffer packetData, int flags, int fragmentSize) {
+            _frame = frame;
+            _packetData = packetData;
+            _start = packetData.position();
+            _flags = flags;
+            _fragmentSize = fragmentSize;
+        }
+
+        private void release() {
+            _frame.release();
+        }
+    }
+}
@@ -18,15 +18,44 @@
 
 package de.minestar.conair.network;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 public final class PacketBuffer {
 
     private final ByteBuffer _buffer;
+    private final BufferPool _pool;
 
     public PacketBuffer(ByteBuffer buffer) {
+        this(buffer, null);
+    }
+
+    private PacketBuffer(ByteBuffer buffer, BufferPool pool) {
         _buffer = buffer;
+        _pool = pool;
+    }
+
+    /**
+     * Create a packetbuffer on a buffer of the pool. It must be {@link #release() released} afterwards.
+     * 
+     * @param pool
+     *            the pool
+     * @param size
+     *            the size in bytes
+     * @return the packetbuffer.
+     */
+    public static PacketBuffer lease(BufferPool pool, int size) {
+        return new PacketBuffer(pool.lease(size), pool);
+    }
+
+    /**
+     * Return the buffer to its pool, if it was {@link #lease(BufferPool, int) leased}. The packetbuffer must not be used anymore.
+     */
+    public void release() {
+        if (_pool != null) {
+            _pool.release(_buffer);
+        }
     }
 
     public PacketBuffer(int bufferSize) {
@@ -79,19 +108,34 @@ public final class PacketBuffer {
         return this;
     }
 
+    /**
+     * Move the position behind the next bytes, without reading them.
+     * 
+     * @param length
+     *            the number of bytes
+     * @return this.
+     */
+    public PacketBuffer skipBytes(int length) {
+        if (length < 0 || length > _buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        _buffer.position(_buffer.position() + length);
+        return this;
+    }
+
     public byte[] readByteArray() {
-        final byte[] dest = new byte[readInt()];
-        for (int i = 0; i < dest.length; i++) {
-            dest[i] = readByte();
+        final int length = readInt();
+        if (length < 0 || length > _buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid arraylength: " + length);
         }
+        final byte[] dest = new byte[length];
+        _buffer.get(dest);
         return dest;
     }
 
     public PacketBuffer writeByteArray(byte[] src) {
         writeInt(src.length);
-        for (final byte b : src) {
-            put(b);
-        }
+        _buffer.put(src);
         return this;
     }
 
@@ -245,21 +289,240 @@ public final class PacketBuffer {
         return this;
     }
 
+    /*
+     * VARINTS
+     */
+    public int readVarInt() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = _buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0 && shift < 35);
+        return value;
+    }
+
+    public PacketBuffer writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            _buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        _buffer.put((byte) value);
+        return this;
+    }
+
+    public static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static int getVarIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
     /*
      * STRINGS
      */
     private final static Charset CHARSET = Charset.forName("UTF-8");
 
+    // short strings are cached by their bytes, so frequent strings are decoded without any allocation
+    private final static int STRING_CACHE_SIZE = 1024;
+    private final static int MAX_CACHED_LENGTH = 32;
+    private final static CachedString[] STRING_CACHE = new CachedString[STRING_CACHE_SIZE];
+
+    // longer strings are copied into a scratch array of the thread
+    private final static int MAX_SCRATCH_LENGTH = 64 * 1024;
+    private final static ThreadLocal<byte[]> STRING_SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
     public void writeString(String s) {
-        byte[] b = s.getBytes(CHARSET);
-        _buffer.putInt(b.length);
-        _buffer.put(b);
+        _buffer.putInt(getUTF8Length(s));
+        writeUTF8(_buffer, s);
     }
 
     public String readString() {
-        int len = _buffer.getInt();
-        byte[] b = new byte[len];
+        return readUTF8(_buffer.getInt());
+    }
+
+    /**
+     * Write a string which may be <code>null</code>. The length is stored as a varint holding <code>length + 1</code>, <code>0</code> marks <code>null</code>.
+     * 
+     * @param s
+     *            the string
+     */
+    public void writeNullableString(String s) {
+        if (s == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(getUTF8Length(s) + 1);
+        writeUTF8(_buffer, s);
+    }
+
+    public String readNullableString() {
+        int len = readVarInt() - 1;
+        if (len < 0) {
+            return null;
+        }
+        return readUTF8(len);
+    }
+
+    /**
+     * Get the number of bytes of a string in UTF-8, as written by {@link #writeUTF8(ByteBuffer, String)}.
+     * 
+     * @param s
+     *            the string
+     * @return the number of bytes.
+     */
+    public static int getUTF8Length(String s) {
+        final int length = s.length();
+        int size = length;
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                size += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // 4 bytes for both chars
+                size += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                size += 2;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Write the UTF-8 bytes of a string directly into the buffer, without any length. Unpaired surrogates are replaced by <code>'?'</code> like {@link String#getBytes(Charset)} does.
+     * 
+     * @param buffer
+     *            the buffer
+     * @param s
+     *            the string
+     */
+    public static void writeUTF8(ByteBuffer buffer, String s) {
+        final int length = s.length();
+        int i = 0;
+        // most strings are plain ASCII
+        while (i < length) {
+            final char c = s.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            buffer.put((byte) c);
+            i++;
+        }
+        for (; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Read a string of the given number of UTF-8 bytes. Short strings are returned from a cache, if the same bytes were read before.
+     * 
+     * @param length
+     *            the number of bytes
+     * @return the string.
+     */
+    public String readUTF8(int length) {
+        if (length < 0 || length > _buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (length <= MAX_CACHED_LENGTH) {
+            return readCachedUTF8(length);
+        }
+        if (_buffer.hasArray()) {
+            final String s = new String(_buffer.array(), _buffer.arrayOffset() + _buffer.position(), length, CHARSET);
+            _buffer.position(_buffer.position() + length);
+            return s;
+        }
+        byte[] scratch = STRING_SCRATCH.get();
+        if (scratch.length < length) {
+            scratch = new byte[length];
+            if (length <= MAX_SCRATCH_LENGTH) {
+                STRING_SCRATCH.set(scratch);
+            }
+        }
+        _buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, CHARSET);
+    }
+
+    private String readCachedUTF8(int length) {
+        final int start = _buffer.position();
+        int hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + _buffer.get(start + i);
+        }
+        final int index = (hash ^ (hash >>> 16)) & (STRING_CACHE_SIZE - 1);
+        final CachedString cached = STRING_CACHE[index];
+        if (cached != null && cached.matches(_buffer, start, length, hash)) {
+            _buffer.position(start + length);
+            return cached._string;
+        }
+        final byte[] b = new byte[length];
         _buffer.get(b);
-        return new String(b, CHARSET);
+        final String s = new String(b, CHARSET);
+        // entries are immutable, so they can be replaced by any thread
+        STRING_CACHE[index] = new CachedString(hash, b, s);
+        return s;
+    }
+
+    private static final class CachedString {
+        private final int _hash;
+        private final byte[] _bytes;
+        private final String _string;
+
+        private CachedString(int hash, byte[] bytes, String string) {
+            _hash = hash;
+            _bytes = bytes;
+            _string = string;
+        }
+
+        private boolean matches(ByteBuffer buffer, int start, int length, int hash) {
+            if (_hash != hash || _bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (_bytes[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
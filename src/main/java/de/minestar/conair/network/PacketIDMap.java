@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import de.minestar.conair.network.utils.IntMap;
+
+/**
+ * Compact packet IDs of a single connection. The client sends the classnames of its packets with the {@link de.minestar.conair.network.packets.RegisterRequestPacket}, the n-th classname gets the wire ID n. Both sides create the map from the same names, so there is nothing else to exchange.
+ * <p>
+ * Wire IDs are written as varints in {@link FrameFormat#VERSION_2 version 2} frames, so the first 63 packets need a single byte in the frameheader instead of four. The wire ID {@link #UNMAPPED} is followed by the full packet ID, it is used for packets which were registered after the handshake.
+ */
+public final class PacketIDMap {
+
+    public static final int UNMAPPED = 0;
+
+    /**
+     * More packets are not mapped, so every frametype fits into two bytes.
+     */
+    public static final int MAX_PACKET_IDS = (1 << 13) - 1;
+
+    private final int[] _packetIDs;
+    private final IntMap<Integer> _wireIDs;
+
+    public PacketIDMap(String[] packetNames) {
+        final int count = Math.min(packetNames.length, MAX_PACKET_IDS);
+        _packetIDs = new int[count + 1];
+        _wireIDs = new IntMap<Integer>(count);
+        for (int i = 0; i < count; i++) {
+            final int wireID = i + 1;
+            final int packetID = PacketRegistry.getUniqueID(packetNames[i]);
+            _packetIDs[wireID] = packetID;
+            // a duplicate name keeps its first wire ID
+            if (!_wireIDs.containsKey(packetID)) {
+                _wireIDs.put(packetID, wireID);
+            }
+        }
+    }
+
+    /**
+     * @param packetID
+     *            the ID of the packet
+     * @return the wire ID, or {@link #UNMAPPED} if the packet has none.
+     */
+    public int getWireID(int packetID) {
+        final Integer wireID = _wireIDs.get(packetID);
+        return wireID != null ? wireID : UNMAPPED;
+    }
+
+    /**
+     * @param wireID
+     *            the wire ID, must not be {@link #UNMAPPED}
+     * @return the ID of the packet.
+     * @throws IllegalArgumentException
+     *             if the wire ID is unknown
+     */
+    public int getPacketID(int wireID) {
+        if (wireID <= UNMAPPED || wireID >= _packetIDs.length) {
+            throw new IllegalArgumentException("Unknown wire ID: " + wireID);
+        }
+        return _packetIDs[wireID];
+    }
+}
@@ -70,16 +70,6 @@ public final class PacketQueue {
         return _activePacket;
     }
 
-    public boolean packPacket(PacketBuffer packetBuffer) {
-        if (isActive()) {
-            packetBuffer.clear();
-            boolean result = _activePacket.pack(packetBuffer);
-            packetBuffer.getBuffer().flip();
-            return result;
-        }
-        return false;
-    }
-
     public int getSize() {
         return _packetQueue.size();
     }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import de.minestar.conair.network.packets.NetworkPacket;
+import de.minestar.conair.network.utils.IntMap;
+
+/**
+ * The packettypes known to a server or client. Every server and client can own its own registry, {@link PacketType} uses the {@link #getDefault() default registry}.
+ * <p>
+ * The lookups never lock. Every registration publishes a new immutable snapshot, so the network threads always see a consistent registry.
+ */
+public final class PacketRegistry {
+
+    private static final PacketRegistry DEFAULT = new PacketRegistry();
+
+    private volatile Snapshot _snapshot;
+
+    // the ID of every class, computed once per class and registry
+    private final ClassValue<Integer> _ids = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return _snapshot._ids.get(type);
+        }
+    };
+
+    public PacketRegistry() {
+        _snapshot = new Snapshot(new HashMap<Class<?>, Integer>(), new IntMap<Class<? extends NetworkPacket>>());
+    }
+
+    /**
+     * @return the registry, which is used by the static methods of {@link PacketType}.
+     */
+    public static PacketRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public <P extends NetworkPacket> Integer getID(Class<P> packetClazz) {
+        return _ids.get(packetClazz);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <P extends NetworkPacket> Class<P> getClassByID(int ID) {
+        return (Class<P>) _snapshot._classes.get(ID);
+    }
+
+    public <P extends NetworkPacket> boolean isRegistered(Class<P> packetClazz) {
+        return _ids.get(packetClazz) != null;
+    }
+
+    /**
+     * @return the classnames of all registered packets.
+     */
+    public String[] getPacketNames() {
+        final Map<Class<?>, Integer> ids = _snapshot._ids;
+        final String[] names = new String[ids.size()];
+        int i = 0;
+        for (Class<?> packetClazz : ids.keySet()) {
+            names[i++] = packetClazz.getName();
+        }
+        return names;
+    }
+
+    public synchronized <P extends NetworkPacket> boolean registerPacket(Class<P> packetClazz) {
+        try {
+            int ID = getUniqueID(packetClazz.getName());
+            Snapshot snapshot = _snapshot;
+            if (snapshot._classes.containsKey(ID)) {
+                throw new RuntimeException("NetworkPacket '" + packetClazz.getSimpleName() + "' is already registered!");
+            }
+            Map<Class<?>, Integer> ids = new HashMap<Class<?>, Integer>(snapshot._ids);
+            ids.put(packetClazz, ID);
+            IntMap<Class<? extends NetworkPacket>> classes = snapshot._classes.copy();
+            classes.put(ID, packetClazz);
+            publish(new Snapshot(ids, classes), packetClazz);
+            System.out.println("Registering '" + packetClazz.getSimpleName() + "' , ID: " + ID);
+            return true;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public synchronized <P extends NetworkPacket> boolean unregisterPacket(Class<P> packet) {
+        int ID = getUniqueID(packet.getName());
+        Snapshot snapshot = _snapshot;
+        if (!snapshot._classes.containsKey(ID)) {
+            throw new RuntimeException("NetworkPacket '" + packet.getSimpleName() + "' is not registered!");
+        }
+        Map<Class<?>, Integer> ids = new HashMap<Class<?>, Integer>(snapshot._ids);
+        ids.remove(packet);
+        IntMap<Class<? extends NetworkPacket>> classes = snapshot._classes.copy();
+        classes.remove(ID);
+        publish(new Snapshot(ids, classes), packet);
+        return true;
+    }
+
+    private void publish(Snapshot snapshot, Class<?> packetClazz) {
+        _snapshot = snapshot;
+        // the class may have been looked up before, so its ID is computed again
+        _ids.remove(packetClazz);
+    }
+
+    /**
+     * This method will (hopefully) return a unique ID for a given string. The ID of a packet only depends on its classname, so it is the same in every registry.
+     * 
+     * @param string
+     * @return the ID
+     */
+    public static int getUniqueID(String string) {
+        return UUID.nameUUIDFromBytes(string.getBytes()).hashCode();
+    }
+
+    private static final class Snapshot {
+
+        private final Map<Class<?>, Integer> _ids;
+        private final IntMap<Class<? extends NetworkPacket>> _classes;
+
+        private Snapshot(Map<Class<?>, Integer> ids, IntMap<Class<? extends NetworkPacket>> classes) {
+            _ids = ids;
+            _classes = classes;
+        }
+    }
+}
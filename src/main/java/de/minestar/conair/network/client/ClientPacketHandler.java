@@ -18,114 +18,124 @@
 
 package de.minestar.conair.network.client;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.io.File;
 import java.nio.ByteBuffer;
 
+import de.minestar.conair.network.EncodedFrame;
 import de.minestar.conair.network.PacketBuffer;
 import de.minestar.conair.network.PacketQueue;
-import de.minestar.conair.network.PacketType;
+import de.minestar.conair.network.PacketRegistry;
+import de.minestar.conair.network.codec.ClassDescriptorTable;
+import de.minestar.conair.network.codec.CodecContext;
+import de.minestar.conair.network.codec.PacketCodec;
 import de.minestar.conair.network.packets.NetworkPacket;
-import de.minestar.conair.network.utils.Unsafe;
+import de.minestar.conair.network.utils.IntMap;
 
 public abstract class ClientPacketHandler {
 
-    private final PacketBuffer _packetBuffer;
     private final PacketQueue _packetQueue;
+    private volatile CodecContext _codecContext;
+    // the descriptors of the server, only used by the thread of the client
+    private volatile CodecContext _inboundContext;
+    // only used by the thread of the client
+    private CodecContext _outboundContext;
+    private IntMap<Boolean> _decodedPacketIDs;
 
     public ClientPacketHandler() {
         _packetQueue = new PacketQueue();
-        _packetBuffer = new PacketBuffer();
-    }
-
-    final boolean isPacketComplete(ByteBuffer buffer) {
-        buffer.flip();
-        int len = 0;
-        if (buffer.hasRemaining()) {
-            len = buffer.getInt();
-        } else {
-            return false;
-        }
-        if (buffer.remaining() <= len - 4) {
-            return false;
-        }
-        return (buffer.get(len) == NetworkPacket.PACKET_SEPERATOR);
+        _codecContext = new CodecContext(getClass().getClassLoader());
+        _inboundContext = _codecContext.withClassDescriptorTable(new ClassDescriptorTable());
     }
 
     public final <P extends NetworkPacket> boolean sendPacket(P packet) {
-        if (!_packetQueue.addPacket(packet)) {
+        if (!getPacketRegistry().isRegistered(packet.getClass())) {
             System.out.println("ERROR: Packet '" + packet.getClass().getSimpleName() + "' is not registered!");
             return false;
         } else {
+            _packetQueue.addUnsafePacket(packet);
             return _packetQueue.getSize() == 1;
         }
     }
 
-    final <P extends NetworkPacket> P extractPacket(ByteBuffer src) {
-        src.rewind();
-        int len = src.getInt();
-        int limit = src.limit();
-        src.limit(len);
-        _packetBuffer.clear();
-        _packetBuffer.writeByteBuffer(src);
-        _packetBuffer.getBuffer().flip();
-        src.limit(limit);
-        src.compact();
-        return createPacket(len);
+    // called by the client, before any packet is sent or received
+    final void setPacketRegistry(PacketRegistry packetRegistry) {
+        _codecContext = new CodecContext(getClass().getClassLoader(), packetRegistry);
+        // every connection starts with empty tables
+        _inboundContext = _codecContext.withClassDescriptorTable(new ClassDescriptorTable());
+        _outboundContext = null;
     }
 
-    @SuppressWarnings({"restriction", "unchecked"})
-    private final <P extends NetworkPacket> P createPacket(int datalength) {
-        try {
-            // reduce the datalength, because we read two integers first.
-            // One integer is 4 bytes long
-            datalength -= 8;
+    // called by the client, after the server accepted the descriptor table for these packets
+    final void setDecodedPacketIDs(int[] decodedPacketIDs) {
+        _decodedPacketIDs = new IntMap<Boolean>(decodedPacketIDs.length);
+        for (int packetID : decodedPacketIDs) {
+            _decodedPacketIDs.put(packetID, Boolean.TRUE);
+        }
+        _outboundContext = _codecContext.withClassDescriptorTable(new ClassDescriptorTable());
+    }
+
+    final PacketRegistry getPacketRegistry() {
+        return _codecContext.getPacketRegistry();
+    }
 
-            // get packettype
-            int packetID = _packetBuffer.readInt();
-            Class<P> packetClazz = PacketType.getClassByID(packetID);
+    // the packetdata is the slice of the inbound buffer returned by the FrameDecoder, it is only valid until the next frame
+    final <P extends NetworkPacket> P extractPacket(int packetID, ByteBuffer packetData) {
+        return createPacket(packetID, new PacketBuffer(packetData));
+    }
+
+    @SuppressWarnings("unchecked")
+    private final <P extends NetworkPacket> P createPacket(int packetID, PacketBuffer frameBuffer) {
+        try {
+            Class<P> packetClazz = _codecContext.getPacketRegistry().getClassByID(packetID);
 
             // packet not found...
             if (packetClazz == null) {
                 return null;
             }
 
-            // get the constructor
-            P instance = (P) Unsafe.get().allocateInstance(packetClazz);
-            Field packetIdField = instance.getClass().getSuperclass().getDeclaredField("_packetID");
-            packetIdField.setAccessible(true);
-            packetIdField.set(instance, packetID);
-            packetIdField.setAccessible(false);
-
-            // read data...
-            byte[] data = new byte[datalength];
-            _packetBuffer.readBytes(data);
-
-            // ... and create a new PacketBuffer
-            PacketBuffer newBuffer = new PacketBuffer(data.length);
-            newBuffer.writeBytes(data);
-            newBuffer.getBuffer().rewind();
-
-            // call the onReceive-Method
-            Method method = instance.getClass().getSuperclass().getDeclaredMethod("onReceive", PacketBuffer.class);
-            method.setAccessible(true);
-            method.invoke(instance, newBuffer);
-            method.setAccessible(false);
-
-            // return the instance
-            return instance;
+            // decode the packet directly from the frame, the codecs copy every value they read
+            return PacketCodec.forClass(packetClazz).decode(packetID, frameBuffer, _inboundContext);
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    // the table is only used for packets, which the server decodes in order
+    private CodecContext getEncodingContext(NetworkPacket packet) {
+        if (_outboundContext != null) {
+            Integer packetID = _codecContext.getPacketRegistry().getID(packet.getClass());
+            if (packetID != null && _decodedPacketIDs.containsKey(packetID)) {
+                return _outboundContext;
+            }
+        }
+        return _codecContext;
+    }
+
+    /**
+     * Called by the thread of the client, after a file was received completely.
+     *
+     * @param file
+     *            the file in the directory of the client
+     */
+    public void handleReceivedFile(File file) {
+    }
+
+    final boolean hasPendingPackets() {
+        return _packetQueue.getSize() > 0;
+    }
+
     final boolean updateQueue(ConnectedClient client) {
-        if (_packetQueue.updateQueue()) {
-            _packetQueue.packPacket(_packetBuffer);
-            client.addByteBuffer(_packetBuffer.getBuffer());
-            return true;
+        // encode all pending packets, so they can be written at once
+        boolean result = false;
+        while (_packetQueue.updateQueue()) {
+            NetworkPacket packet = _packetQueue.getActivePacket();
+            EncodedFrame frame = EncodedFrame.encode(packet, getEncodingContext(packet));
+            if (frame != null) {
+                client.addFrame(frame);
+                result = true;
+            }
         }
-        return false;
+        return result;
     }
 }
@@ -18,7 +18,6 @@
 
 package de.minestar.conair.network.client;
 
-import de.minestar.conair.network.PacketType;
 import de.minestar.conair.network.packets.NetworkPacket;
 import de.minestar.conair.network.packets.RegisterDenyPacket;
 import de.minestar.conair.network.packets.RegisterOKPacket;
@@ -33,11 +32,11 @@ public class ClientSidePacketHandler extends AbstractClientPacketHandler {
 
     @Override
     public <P extends NetworkPacket> boolean handlePacket(P packet) {
-        if (packet.getPacketID() == PacketType.getID(RegisterOKPacket.class)) {
+        if (packet instanceof RegisterOKPacket) {
             this.handleRegisterOKPacket((RegisterOKPacket) packet);
             return true;
         }
-        if (packet.getPacketID() == PacketType.getID(RegisterDenyPacket.class)) {
+        if (packet instanceof RegisterDenyPacket) {
             this.handleRegisterDenyPacket((RegisterDenyPacket) packet);
             return true;
         }
@@ -51,5 +50,6 @@ public class ClientSidePacketHandler extends AbstractClientPacketHandler {
 
     private void handleRegisterOKPacket(RegisterOKPacket packet) {
         System.out.println("Successfully connected to the server!");
+        _client.onRegistered(packet.getProtocolVersion(), packet.supportsCompression(), packet.getDecodedPacketIDs(), packet.understandsFragments());
     }
 }
@@ -22,12 +22,18 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
-public final class ConnectedClient {
+import de.minestar.conair.network.EncodedFrame;
+import de.minestar.conair.network.FileTransfer;
+import de.minestar.conair.network.FrameCompression;
+import de.minestar.conair.network.FrameDecoder;
+import de.minestar.conair.network.FrameWriter;
+import de.minestar.conair.network.PacketIDMap;
 
-    private final ByteBuffer _inBuffer = ByteBuffer.allocateDirect(128 * 1024);
-    private final ByteBuffer _outBuffer = ByteBuffer.allocateDirect(128 * 1024);
+public final class ConnectedClient {
 
-    private boolean _dataToSend = false;
+    private final FrameDecoder _frameDecoder = new FrameDecoder();
+    private final FrameWriter _frameWriter = new FrameWriter();
+    private final FrameCompression _compression = new FrameCompression();
 
     private String _name;
 
@@ -46,42 +52,81 @@ public final class ConnectedClient {
     boolean readFrom(SocketChannel channel) throws Exception {
         int b = 0;
         try {
-            b = channel.read(_inBuffer);
+            b = _frameDecoder.readFrom(channel);
         } catch (IOException e) {
             return false;
         }
         return b != -1;
     }
 
-    void addByteBuffer(ByteBuffer buffer) {
-        if (!_dataToSend) {
-            _outBuffer.put(buffer);
-            _outBuffer.flip();
-            buffer.rewind();
-            _dataToSend = true;
-        }
+    void addFrame(EncodedFrame frame) {
+        _frameWriter.add(frame);
+    }
+
+    void addFile(FileTransfer fileTransfer) {
+        _frameWriter.addFile(fileTransfer);
     }
 
     boolean hasDataToSend() {
-        return _dataToSend;
+        return _frameWriter.hasDataToSend();
+    }
+
+    void setWriteBudget(int writeBudget) {
+        _frameWriter.setWriteBudget(writeBudget);
     }
 
     boolean write(SocketChannel channel) throws IOException {
-        int b = 0;
         try {
-            b = channel.write(_outBuffer);
+            // write as many pending frames as possible at once
+            _frameWriter.write(channel);
         } catch (IOException e) {
             return false;
         }
-        if (b == 0) {
-            _dataToSend = false;
-            _outBuffer.clear();
+        return true;
+    }
+
+    ByteBuffer nextFrame() throws IOException {
+        return _frameDecoder.nextFrame();
+    }
+
+    int getFramePacketID() {
+        return _frameDecoder.getPacketID();
+    }
+
+    /**
+     * The server may use version 2 and compressed frames as soon as it has read the request.
+     */
+    void setInboundPacketIDMap(PacketIDMap packetIDMap) {
+        _frameDecoder.setPacketIDMap(packetIDMap);
+        _frameDecoder.setCompression(_compression);
+    }
+
+    /**
+     * The client may only use version 2 after the server has accepted it.
+     */
+    void setOutboundPacketIDMap(PacketIDMap packetIDMap, boolean compression, boolean fragments) {
+        _frameWriter.setPacketIDMap(packetIDMap);
+        if (compression) {
+            _frameWriter.setCompression(_compression);
+        }
+        if (fragments) {
+            _frameWriter.setFragmentSize(FrameWriter.DEFAULT_FRAGMENT_SIZE);
         }
-        return b != -1;
     }
 
-    ByteBuffer getClientBuffer() {
-        return _inBuffer;
+    void setMaxMessageSize(int maxMessageSize) {
+        _frameDecoder.setMaxMessageSize(maxMessageSize);
+    }
+
+    FrameCompression getFrameCompression() {
+        return _compression;
+    }
+
+    /**
+     * Release the zlib streams, the reading thread may still be running.
+     */
+    void close() {
+        _compression.close();
     }
 
 }
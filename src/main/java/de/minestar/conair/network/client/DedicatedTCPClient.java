@@ -18,8 +18,11 @@
 
 package de.minestar.conair.network.client;
 
+import java.io.File;
 import java.io.IOException;
 
+import de.minestar.conair.network.FrameCompression;
+import de.minestar.conair.network.PacketRegistry;
 import de.minestar.conair.network.packets.NetworkPacket;
 
 public class DedicatedTCPClient {
@@ -33,13 +36,17 @@ public class DedicatedTCPClient {
     private int _port;
 
     public DedicatedTCPClient(String clientName, ClientPacketHandler packetHandler, String host, int port) throws IOException {
+        this(clientName, packetHandler, host, port, PacketRegistry.getDefault());
+    }
+
+    public DedicatedTCPClient(String clientName, ClientPacketHandler packetHandler, String host, int port, PacketRegistry packetRegistry) throws IOException {
         try {
             _clientName = clientName;
             _packetHandler = packetHandler;
             _host = host;
             _port = port;
 
-            _client = new TCPClient(clientName, packetHandler, host, port);
+            _client = new TCPClient(clientName, packetHandler, host, port, packetRegistry);
             _clientThread = new Thread(_client);
             _clientThread.start();
         } catch (IOException e) {
@@ -76,7 +83,35 @@ public class DedicatedTCPClient {
         return _port;
     }
 
+    public void setWriteBudget(int writeBudget) {
+        _client.setWriteBudget(writeBudget);
+    }
+
+    public void setCompressionThreshold(int threshold) {
+        _client.setCompressionThreshold(threshold);
+    }
+
+    public void setMaxMessageSize(int maxMessageSize) {
+        _client.setMaxMessageSize(maxMessageSize);
+    }
+
+    public void setFileDirectory(File directory) {
+        _client.setFileDirectory(directory);
+    }
+
+    public void setMaxFileSize(long maxFileSize) {
+        _client.setMaxFileSize(maxFileSize);
+    }
+
+    public FrameCompression getFrameCompression() {
+        return _client.getFrameCompression();
+    }
+
     public <P extends NetworkPacket> void sendPacket(P packet) {
         _client.sendPacket(packet);
     }
+
+    public void sendFile(File file) throws IOException {
+        _client.sendFile(file);
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.client;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import de.minestar.conair.network.client.annotations.HandlePacket;
+import de.minestar.conair.network.packets.NetworkPacket;
+import de.minestar.conair.network.utils.IntMap;
+
+/**
+ * Dispatch table of a {@link ClientPacketHandler}. The handler methods are searched once and bound to the handler, a packet is dispatched by its ID without any reflection.
+ * <p>
+ * A handler method has exactly one parameter, which is a subclass of {@link NetworkPacket}. Methods of superclasses of the handler are found as well. If there is more than one method for the same packet, methods with {@link HandlePacket} win over methods without it, and methods of subclasses win over methods of their superclasses.
+ */
+final class PacketDispatcher {
+
+    private static final MethodType HANDLER_TYPE = MethodType.methodType(void.class, NetworkPacket.class);
+
+    private final Map<Class<?>, MethodHandle> _handlers;
+    // packets without a handler are stored with null
+    private volatile IntMap<MethodHandle> _handlersByID;
+
+    PacketDispatcher(ClientPacketHandler packetHandler) {
+        final Map<Class<?>, Method> methods = new HashMap<Class<?>, Method>();
+        final Set<Class<?>> annotated = new HashSet<Class<?>>();
+
+        // search from the handler up to ClientPacketHandler, so the subclasses come first
+        for (Class<?> clazz = packetHandler.getClass(); clazz != ClientPacketHandler.class && clazz != null; clazz = clazz.getSuperclass()) {
+            for (final Method method : clazz.getDeclaredMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) || method.isBridge() || method.isSynthetic()) {
+                    continue;
+                }
+                final boolean isAnnotated = method.isAnnotationPresent(HandlePacket.class);
+                if (method.getParameterTypes().length != 1 || !NetworkPacket.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                    if (isAnnotated) {
+                        System.out.println("Method '" + method.getName() + "' is not a valid packethandler!");
+                    }
+                    continue;
+                }
+                final Class<?> packetClass = method.getParameterTypes()[0];
+                if (!methods.containsKey(packetClass) || (isAnnotated && !annotated.contains(packetClass))) {
+                    methods.put(packetClass, method);
+                    if (isAnnotated) {
+                        annotated.add(packetClass);
+                    }
+                }
+            }
+        }
+
+        // bind all methods to the handler
+        _handlers = new HashMap<Class<?>, MethodHandle>();
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (final Map.Entry<Class<?>, Method> entry : methods.entrySet()) {
+            final Method method = entry.getValue();
+            try {
+                method.setAccessible(true);
+                _handlers.put(entry.getKey(), lookup.unreflect(method).bindTo(packetHandler).asType(HANDLER_TYPE));
+            } catch (Exception e) {
+                System.out.println("Method '" + method.getName() + "' is not accessible!");
+                e.printStackTrace();
+            }
+        }
+
+        // index all packets, which are already registered
+        final IntMap<MethodHandle> handlersByID = new IntMap<MethodHandle>(_handlers.size());
+        for (final Map.Entry<Class<?>, MethodHandle> entry : _handlers.entrySet()) {
+            final Integer packetID = packetHandler.getPacketRegistry().getID(entry.getKey().asSubclass(NetworkPacket.class));
+            if (packetID != null) {
+                handlersByID.put(packetID, entry.getValue());
+            }
+        }
+        _handlersByID = handlersByID;
+    }
+
+    /**
+     * Call the handler method of a packet.
+     *
+     * @param packet
+     *            the packet
+     *
+     * @return <code>true</code>, if there is a handler for the packet.
+     */
+    boolean dispatch(NetworkPacket packet) {
+        final IntMap<MethodHandle> handlersByID = _handlersByID;
+        MethodHandle handler = handlersByID.get(packet.getPacketID());
+        if (handler == null) {
+            if (handlersByID.containsKey(packet.getPacketID())) {
+                return false;
+            }
+            handler = resolve(packet.getPacketID(), packet.getClass());
+            if (handler == null) {
+                return false;
+            }
+        }
+
+        try {
+            handler.invokeExact(packet);
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+        return true;
+    }
+
+    // packets which were registered after the dispatcher was created
+    private MethodHandle resolve(int packetID, Class<?> packetClass) {
+        final MethodHandle handler = _handlers.get(packetClass);
+        final IntMap<MethodHandle> handlersByID = _handlersByID.copy();
+        handlersByID.put(packetID, handler);
+        _handlersByID = handlersByID;
+        return handler;
+    }
+}
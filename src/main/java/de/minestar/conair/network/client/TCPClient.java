@@ -18,22 +18,26 @@
 
 package de.minestar.conair.network.client;
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-
-import de.minestar.conair.network.PacketType;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.minestar.conair.network.BufferPool;
+import de.minestar.conair.network.FileReceiver;
+import de.minestar.conair.network.FileTransfer;
+import de.minestar.conair.network.FrameCompression;
+import de.minestar.conair.network.FrameFormat;
+import de.minestar.conair.network.PacketIDMap;
+import de.minestar.conair.network.PacketRegistry;
+import de.minestar.conair.network.packets.FileChunkPacket;
 import de.minestar.conair.network.packets.NetworkPacket;
 import de.minestar.conair.network.packets.RegisterDenyPacket;
 import de.minestar.conair.network.packets.RegisterOKPacket;
@@ -43,19 +47,33 @@ public final class TCPClient implements Runnable {
 
     private Selector _selector;
     private SocketChannel _socketChannel;
+    private SelectionKey _selectionKey;
+    // true, while the client is waiting for OP_WRITE or is writing
+    private final AtomicBoolean _writeScheduled = new AtomicBoolean(false);
+    // set by other threads, the selectorthread adds OP_WRITE before its next select
+    private final AtomicBoolean _writeRequested = new AtomicBoolean(false);
     private ConnectedClient _client;
     private boolean _isRunning;
     private final String _clientName;
     private ClientPacketHandler _packetHandler;
     private ClientSidePacketHandler _clientSidePacketHandler;
-
-    private Map<Class<? extends NetworkPacket>, Method> _methodMap;
-    private Set<Class<? extends NetworkPacket>> _searchedMethods;
+    private final PacketDispatcher _packetDispatcher;
+    private final PacketRegistry _packetRegistry;
+    private final PacketIDMap _packetIDMap;
+    // files are handed to the selectorthread like packets
+    private final ConcurrentLinkedQueue<FileTransfer> _pendingFiles = new ConcurrentLinkedQueue<FileTransfer>();
+    private final FileReceiver _fileReceiver = new FileReceiver();
 
     public TCPClient(String name, ClientPacketHandler packetHandler, String host, int port) throws IOException {
+        this(name, packetHandler, host, port, PacketRegistry.getDefault());
+    }
+
+    public TCPClient(String name, ClientPacketHandler packetHandler, String host, int port, PacketRegistry packetRegistry) throws IOException {
         _clientName = name;
 
         _packetHandler = packetHandler;
+        _packetHandler.setPacketRegistry(packetRegistry);
+        _packetRegistry = packetRegistry;
 
         _selector = Selector.open();
 
@@ -64,14 +82,13 @@ public final class TCPClient implements Runnable {
 
         // Non-Blocking for Selector activity
         _socketChannel.configureBlocking(false);
-        _socketChannel.register(_selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        _selectionKey = _socketChannel.register(_selector, SelectionKey.OP_READ);
 
         _isRunning = true;
 
         _client = new ConnectedClient("localhost");
 
-        _methodMap = new HashMap<Class<? extends NetworkPacket>, Method>();
-        _searchedMethods = new HashSet<Class<? extends NetworkPacket>>();
+        _packetDispatcher = new PacketDispatcher(packetHandler);
 
         // create ClientSidePacketHandler
         _clientSidePacketHandler = new ClientSidePacketHandler(this);
@@ -79,38 +96,23 @@ public final class TCPClient implements Runnable {
         // register standardpackets
         registerStandardPacketTypes();
 
-        // send RegisterRequestPacket
-        sendPacket(new RegisterRequestPacket(_clientName));
-    }
-
-    private final <P extends NetworkPacket> Method searchMethod(Class<P> packetClass) {
-        if (_searchedMethods.contains(packetClass)) {
-            return _methodMap.get(packetClass);
-        }
-        final Method[] declaredMethods = _packetHandler.getClass().getDeclaredMethods();
-        for (final Method method : declaredMethods) {
-            if (method.getParameterCount() != 1 || Modifier.isStatic(method.getModifiers())) {
-                continue;
-            }
-            if (method.getParameterTypes()[0].equals(packetClass)) {
-                _methodMap.put(packetClass, method);
-                return method;
-            }
-        }
-        _searchedMethods.add(packetClass);
-        return null;
+        // send RegisterRequestPacket, the registered packets get compact IDs for version 2
+        String[] packetNames = _packetRegistry.getPacketNames();
+        _packetIDMap = new PacketIDMap(packetNames);
+        _client.setInboundPacketIDMap(_packetIDMap);
+        sendPacket(new RegisterRequestPacket(_clientName, packetNames, FrameFormat.CURRENT_VERSION, true, true));
     }
 
     private final void registerStandardPacketTypes() {
         registerSinglePacket(RegisterRequestPacket.class);
         registerSinglePacket(RegisterOKPacket.class);
         registerSinglePacket(RegisterDenyPacket.class);
+        registerSinglePacket(FileChunkPacket.class);
     }
 
     private final <P extends NetworkPacket> void registerSinglePacket(Class<P> packetClazz) {
-        Integer ID = PacketType.getID(packetClazz);
-        if (ID == null) {
-            PacketType.registerPacket(packetClazz);
+        if (!_packetRegistry.isRegistered(packetClazz)) {
+            _packetRegistry.registerPacket(packetClazz);
         }
     }
 
@@ -121,6 +123,11 @@ public final class TCPClient implements Runnable {
     public final void run() {
         try {
             while (_isRunning) {
+                // register OP_WRITE, if packets were queued
+                if (_writeRequested.getAndSet(false)) {
+                    _selectionKey.interestOps(_selectionKey.interestOps() | SelectionKey.OP_WRITE);
+                }
+
                 int rdyChannels = _selector.select();
 
                 // No channel want something
@@ -142,14 +149,15 @@ public final class TCPClient implements Runnable {
                     }
                     it.remove();
                 }
-                // sleep for 1 nanosecond...
-                Thread.sleep(0, 1);
             }
         } catch (Exception e) {
             if (!(e instanceof CancelledKeyException)) {
                 e.printStackTrace();
             }
             _isRunning = false;
+        } finally {
+            // the thread ends, its buffers go back to the pool
+            BufferPool.releaseThreadCaches();
         }
     }
 
@@ -162,6 +170,8 @@ public final class TCPClient implements Runnable {
                 _isRunning = false;
                 System.out.println("Stopping client '" + _clientName + "' ...");
                 _socketChannel.socket().close();
+                _client.close();
+                _fileReceiver.close();
                 System.out.println("Client stopped!");
             } catch (IOException e) {
                 e.printStackTrace();
@@ -179,19 +189,34 @@ public final class TCPClient implements Runnable {
             return;
         }
 
-        if (_packetHandler.isPacketComplete(_client.getClientBuffer())) {
+        // handle every complete frame of this read
+        ByteBuffer frame;
+        while ((frame = _client.nextFrame()) != null) {
+            // chunks of files are written to their file without decoding them
+            if (_client.getFramePacketID() == FileTransfer.PACKET_ID) {
+                onFileChunk(frame);
+                continue;
+            }
+
             // extract the packet
-            NetworkPacket packet = _packetHandler.extractPacket(_client.getClientBuffer());
+            NetworkPacket packet = _packetHandler.extractPacket(_client.getFramePacketID(), frame);
 
             // if we have found a packet, we handle it...
             if (packet != null) {
                 handlePacket(packet);
             }
+        }
+    }
 
-            // clear the clientBuffer
-            _client.getClientBuffer().clear();
-        } else {
-            System.out.println("Packet incomplete: " + _client.getClientBuffer());
+    private final void onFileChunk(ByteBuffer frame) {
+        try {
+            File file = _fileReceiver.receive(frame);
+            if (file != null) {
+                _packetHandler.handleReceivedFile(file);
+            }
+        } catch (IOException e) {
+            // only the file is discarded, the connection stays open
+            e.printStackTrace();
         }
     }
 
@@ -200,15 +225,27 @@ public final class TCPClient implements Runnable {
      */
     private <P extends NetworkPacket> void handlePacket(P packet) {
         if (!_clientSidePacketHandler.handlePacket(packet)) {
-            Method method = searchMethod(packet.getClass());
-            if (method != null) {
-                method.setAccessible(true);
-                try {
-                    method.invoke(_packetHandler, packet);
-                } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                    e.printStackTrace();
-                }
-                method.setAccessible(false);
+            _packetDispatcher.dispatch(packet);
+        }
+    }
+
+    /**
+     * Called after the server accepted the client.
+     * 
+     * @param protocolVersion
+     *            the frameformat, which the server accepted
+     * @param compression
+     *            <code>true</code>, if the server understands compressed frames
+     * @param decodedPacketIDs
+     *            the packets, which the server decodes itself and which may therefore be written through the descriptor table, or <code>null</code>
+     * @param fragments
+     *            <code>true</code>, if the server reassembles fragmented frames
+     */
+    final void onRegistered(int protocolVersion, boolean compression, int[] decodedPacketIDs, boolean fragments) {
+        if (protocolVersion >= FrameFormat.VERSION_2) {
+            _client.setOutboundPacketIDMap(_packetIDMap, compression, fragments);
+            if (decodedPacketIDs != null) {
+                _packetHandler.setDecodedPacketIDs(decodedPacketIDs);
             }
         }
     }
@@ -218,23 +255,113 @@ public final class TCPClient implements Runnable {
      */
     public final <P extends NetworkPacket> void sendPacket(P packet) {
         _packetHandler.sendPacket(packet);
+        scheduleWrite();
+    }
+
+    /**
+     * Send a file to the server, which relays it to all other clients. The file is sent in chunks after all packets, which were sent before, and is never read into the heap. Only clients with a {@link #setFileDirectory(File) file directory} receive it.
+     * 
+     * @param file
+     *            the file
+     * @throws IOException
+     *             if the file can not be opened
+     */
+    public final void sendFile(File file) throws IOException {
+        _pendingFiles.add(new FileTransfer(file));
+        scheduleWrite();
+    }
+
+    private final void scheduleWrite() {
+        if (_writeScheduled.compareAndSet(false, true)) {
+            _writeRequested.set(true);
+            _selector.wakeup();
+        }
     }
 
     /*
      * WRITING
      */
     private final void onClientWrite() throws Exception {
+        // queue all pending packets
+        _packetHandler.updateQueue(_client);
+        FileTransfer fileTransfer;
+        while ((fileTransfer = _pendingFiles.poll()) != null) {
+            _client.addFile(fileTransfer);
+        }
+
         if (_client.hasDataToSend()) {
             // If write fails the client has disconnected
             if (!_client.write(_socketChannel)) {
                 stop();
                 return;
             }
-        } else {
-            if (!_client.hasDataToSend()) {
-                _packetHandler.updateQueue(_client);
+        }
+
+        // everything is written, so we are not interested in OP_WRITE anymore
+        if (!_client.hasDataToSend()) {
+            _writeScheduled.set(false);
+            // packets may have been queued in the meantime
+            if ((!_packetHandler.hasPendingPackets() && _pendingFiles.isEmpty()) || !_writeScheduled.compareAndSet(false, true)) {
+                _selectionKey.interestOps(_selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
             }
         }
     }
 
+    /**
+     * Set the maximum number of bytes, which are handed to a single gathering write.
+     * 
+     * @param writeBudget
+     *            the budget in bytes
+     */
+    public final void setWriteBudget(int writeBudget) {
+        _client.setWriteBudget(writeBudget);
+    }
+
+    /**
+     * Compress all frames, which are at least as large as the threshold. Frames are only compressed, if the server understands it.
+     * 
+     * @param threshold
+     *            the size of the packetdata in bytes, or {@link FrameCompression#DISABLED}
+     */
+    public final void setCompressionThreshold(int threshold) {
+        _client.getFrameCompression().setThreshold(threshold);
+    }
+
+    /**
+     * @return the compression of the connection, with its metrics.
+     */
+    public final FrameCompression getFrameCompression() {
+        return _client.getFrameCompression();
+    }
+
+    /**
+     * Set the maximum size of a message, which the server sends in fragments. Larger messages close the connection.
+     * 
+     * @param maxMessageSize
+     *            the size in bytes
+     */
+    public final void setMaxMessageSize(int maxMessageSize) {
+        _client.setMaxMessageSize(maxMessageSize);
+    }
+
+    /**
+     * Receive files into the directory. Files are dropped until a directory is set, a file with an existing name gets a new name.
+     * 
+     * @param directory
+     *            the directory, or <code>null</code> to drop all files again
+     */
+    public final void setFileDirectory(File directory) {
+        _fileReceiver.setDirectory(directory);
+    }
+
+    /**
+     * Set the maximum size of a received file. Larger files are dropped.
+     * 
+     * @param maxFileSize
+     *            the size in bytes, the default is {@link FileReceiver#DEFAULT_MAX_FILE_SIZE}
+     */
+    public final void setMaxFileSize(long maxFileSize) {
+        _fileReceiver.setMaxFileSize(maxFileSize);
+    }
+
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.codec;
+
+import java.io.ObjectStreamClass;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of the class descriptors of serialized objects for one direction of a connection, see {@link SerializationCodec}. The full descriptor is written once together with its slot, afterwards only the slot.
+ * <p>
+ * Slots are assigned in order and never reused, further descriptors are always written in full. A table is not threadsafe, frames must be encoded and decoded in the order in which they are sent.
+ */
+public final class ClassDescriptorTable {
+
+    /**
+     * The number of slots of every table.
+     */
+    public static final int CAPACITY = 256;
+
+    private final ObjectStreamClass[] _descriptors;
+    // sender only: the slot of every descriptor
+    private final Map<ObjectStreamClass, Integer> _slots;
+    private int _count;
+    // sender only: the number of slots assigned by the current frame
+    private int _pending;
+
+    public ClassDescriptorTable() {
+        _descriptors = new ObjectStreamClass[CAPACITY];
+        _slots = new HashMap<ObjectStreamClass, Integer>();
+    }
+
+    /*
+     * SENDING
+     */
+
+    /**
+     * Get the slot of a class descriptor for the current frame, a new descriptor is assigned to the next free slot.
+     *
+     * @param descriptor
+     *            the descriptor
+     * @return the slot and <code>true</code> in the lowest bit, if the descriptor was assigned by this call. <code>-1</code>, if all slots are used.
+     */
+    int getSlot(ObjectStreamClass descriptor) {
+        final Integer slot = _slots.get(descriptor);
+        if (slot != null) {
+            return slot << 1;
+        }
+        if (_count == CAPACITY) {
+            return -1;
+        }
+        _descriptors[_count] = descriptor;
+        _slots.put(descriptor, _count);
+        _pending++;
+        return (_count++ << 1) | 1;
+    }
+
+    /**
+     * @return <code>true</code>, if the current frame has assigned any slot. The receiver must decode such a frame before all later ones.
+     */
+    public boolean hasPendingSlots() {
+        return _pending > 0;
+    }
+
+    /**
+     * Finish the current frame, after it was queued for sending.
+     */
+    public void commit() {
+        _pending = 0;
+    }
+
+    /**
+     * Undo all slots assigned by the current frame, because it is not sent.
+     */
+    public void rollback() {
+        for (; _pending > 0; _pending--) {
+            _slots.remove(_descriptors[--_count]);
+            _descriptors[_count] = null;
+        }
+    }
+
+    /*
+     * RECEIVING
+     */
+
+    /**
+     * Keep a received class descriptor.
+     *
+     * @param slot
+     *            the slot, which the sender assigned
+     * @param descriptor
+     *            the descriptor
+     */
+    void put(int slot, ObjectStreamClass descriptor) {
+        if (slot < 0 || slot >= CAPACITY) {
+            throw new IllegalArgumentException("Invalid descriptor slot: " + slot);
+        }
+        _descriptors[slot] = descriptor;
+    }
+
+    /**
+     * Get a class descriptor, which was received before.
+     *
+     * @param slot
+     *            the slot
+     * @return the descriptor.
+     */
+    ObjectStreamClass get(int slot) {
+        if (slot < 0 || slot >= CAPACITY || _descriptors[slot] == null) {
+            throw new IllegalArgumentException("Unknown class descriptor: " + slot);
+        }
+        return _descriptors[slot];
+    }
+}
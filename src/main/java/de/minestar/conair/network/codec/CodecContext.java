@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.codec;
+
+import de.minestar.conair.network.PacketRegistry;
+
+/**
+ * Per-connection state of the codecs. Every connection owns its own context, packets which are not bound to a connection use {@link #DEFAULT}.
+ */
+public class CodecContext {
+
+    public static final CodecContext DEFAULT = new CodecContext();
+
+    private final ClassLoader _classLoader;
+    private final PacketRegistry _packetRegistry;
+    private final ClassDescriptorTable _classDescriptorTable;
+
+    public CodecContext() {
+        this(CodecContext.class.getClassLoader());
+    }
+
+    public CodecContext(ClassLoader classLoader) {
+        this(classLoader, PacketRegistry.getDefault());
+    }
+
+    public CodecContext(PacketRegistry packetRegistry) {
+        this(CodecContext.class.getClassLoader(), packetRegistry);
+    }
+
+    public CodecContext(ClassLoader classLoader, PacketRegistry packetRegistry) {
+        this(classLoader, packetRegistry, null);
+    }
+
+    private CodecContext(ClassLoader classLoader, PacketRegistry packetRegistry, ClassDescriptorTable classDescriptorTable) {
+        _classLoader = classLoader;
+        _packetRegistry = packetRegistry;
+        _classDescriptorTable = classDescriptorTable;
+    }
+
+    /**
+     * Get a context, which writes or reads the descriptors of serialized classes through the table. Everything else is shared with this context.
+     * 
+     * @param classDescriptorTable
+     *            the table of one direction of the connection
+     * 
+     * @return the new context.
+     */
+    public CodecContext withClassDescriptorTable(ClassDescriptorTable classDescriptorTable) {
+        return new CodecContext(_classLoader, _packetRegistry, classDescriptorTable);
+    }
+
+    /**
+     * @return the table of the class descriptors, or <code>null</code> if they are always written in full.
+     */
+    public ClassDescriptorTable getClassDescriptorTable() {
+        return _classDescriptorTable;
+    }
+
+    public ClassLoader getClassLoader() {
+        return _classLoader;
+    }
+
+    /**
+     * @return the registry, which maps the packets of this connection to their IDs.
+     */
+    public PacketRegistry getPacketRegistry() {
+        return _packetRegistry;
+    }
+}
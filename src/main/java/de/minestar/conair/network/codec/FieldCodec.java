@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.codec;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+import de.minestar.conair.network.PacketBuffer;
+
+/**
+ * Reads and writes a single field of a packet. The accessors are bound once when the codec is created, primitive fields are accessed through exactly typed {@link MethodHandle}s, so no boxing happens.
+ */
+abstract class FieldCodec {
+
+    protected final String _name;
+    protected final Class<?> _type;
+    protected final MethodHandle _getter;
+    protected final MethodHandle _setter;
+
+    private FieldCodec(Field field, Class<?> accessType) throws IllegalAccessException {
+        _name = field.getName();
+        _type = field.getType();
+        field.setAccessible(true);
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        _getter = lookup.unreflectGetter(field).asType(MethodType.methodType(accessType, Object.class));
+        _setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, accessType));
+    }
+
+    public final String getName() {
+        return _name;
+    }
+
+    /**
+     * @return the declared type of the field.
+     */
+    public final Class<?> getType() {
+        return _type;
+    }
+
+    /**
+     * @return the number of bytes of every value, or <code>-1</code> if it depends on the value.
+     */
+    int getFixedSize() {
+        return -1;
+    }
+
+    abstract void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable;
+
+    abstract void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable;
+
+    /**
+     * Read the value of the field without a packet. Primitive values are boxed.
+     */
+    abstract Object readValue(PacketBuffer buffer, CodecContext context) throws Throwable;
+
+    /**
+     * Move the buffer behind the value of the field.
+     */
+    void skip(PacketBuffer buffer, CodecContext context) throws Throwable {
+        final int size = getFixedSize();
+        if (size >= 0) {
+            buffer.skipBytes(size);
+        } else {
+            readValue(buffer, context);
+        }
+    }
+
+    /**
+     * Create the codec for a given field.
+     *
+     * @param field
+     *            the field
+     *
+     * @return the codec.
+     */
+    static FieldCodec create(Field field) throws IllegalAccessException {
+        final Class<?> clazz = field.getType();
+        if (clazz.equals(boolean.class)) {
+            return new BooleanCodec(field);
+        }
+        if (clazz.equals(byte.class)) {
+            return new ByteCodec(field);
+        }
+        if (clazz.equals(short.class)) {
+            return new ShortCodec(field);
+        }
+        if (clazz.equals(int.class)) {
+            return new IntCodec(field);
+        }
+        if (clazz.equals(long.class)) {
+            return new LongCodec(field);
+        }
+        if (clazz.equals(float.class)) {
+            return new FloatCodec(field);
+        }
+        if (clazz.equals(double.class)) {
+            return new DoubleCodec(field);
+        }
+        if (clazz.equals(String.class)) {
+            return new StringCodec(field);
+        }
+        if (clazz.equals(byte[].class)) {
+            return new ByteArrayCodec(field);
+        }
+        if (clazz.equals(Boolean.class) || clazz.equals(Byte.class) || clazz.equals(Short.class) || clazz.equals(Integer.class) || clazz.equals(Long.class) || clazz.equals(Float.class) || clazz.equals(Double.class)) {
+            return new BoxedCodec(field);
+        }
+        return new BinaryCodec(field, ValueCodec.forType(field.getGenericType()));
+    }
+
+    /*
+     * PRIMITIVES
+     */
+
+    private static final class BooleanCodec extends FieldCodec {
+        private BooleanCodec(Field field) throws IllegalAccessException {
+            super(field, boolean.class);
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            buffer.writeByte((boolean) _getter.invokeExact(packet) ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _setter.invokeExact(packet, buffer.readByte() == 1);
+        }
+
+        @Override
+        Object readValue(PacketBuffer buffer, CodecContext context) {
+            return buffer.readByte() == 1;
+        }
+
+        @Override
+        int getFixedSize() {
+            return 1;
+        }
+    }
+
+    private static final class ByteCodec extends FieldCodec {
+        private ByteCodec(Field field) throws IllegalAccessException {
+            super(field, byte.class);
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            buffer.writeByte((byte) _getter.invokeExact(packet));
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _setter.invokeExact(packet, buffer.readByte());
+        }
+
+        @Override
+        Object readValue(PacketBuffer buffer, CodecContext context) {
+            return buffer.readByte();
+        }
+
+        @Override
+        int getFixedSize() {
+            return 1;
+        }
+    }
+
+    private static final class ShortCodec extends FieldCodec {
+        private ShortCodec(Field field) throws IllegalAccessException {
+            super(field, short.class);
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            buffer.writeShort((short) _getter.invokeExact(packet));
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _setter.invokeExact(packet, buffer.readShort());
+        }
+
+        @Override
+        Object readValue(PacketBuffer buffer, CodecContext context) {
+            return buffer.readShort();
+        }
+
+        @Override
+        int getFixedSize() {
+            return 2;
+        }
+    }
+
+    private static final class IntCodec extends FieldCodec {
+        private IntCodec(Field field) throws IllegalAccessException {
+            super(field, int.class);
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            buffer.writeInt((int) _getter.invokeExact(packet));
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _setter.invokeExact(packet, buffer.readInt());
+        }
+
+        @Override
+        Object readValue(PacketBuffer buffer, CodecContext context) {
+            return buffer.readInt();
+        }
+
+        @Override
+        int getFixedSize() {
+            return 4;
+        }
+    }
+
+    private static final class LongCodec extends FieldCodec {
+        private LongCodec(Field field) throws IllegalAccessException {
+            super(field, long.class);
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            buffer.writeLong((long) _getter.invokeExact(packet));
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _setter.invokeExact(packet, buffer.readLong());
+        }
+
+        @Override
+        Object readValue(PacketBuffer buffer, CodecContext context) {
+            return buffer.readLong();
+        }
+
+        @Override
+        int getFixedSize() {
+            return 8;
+        }
+    }
+
+    private static final class FloatCodec extends FieldCodec {
+        private FloatCodec(Field field) throws IllegalAccessException {
+            super(field, float.class);
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            buffer.writeFloat((float) _getter.invokeExact(packet));
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _setter.invokeExact(packet, buffer.readFloat());
+        }
+
+        @Override
+        Object readValue(PacketBuffer buffer, CodecContext context) {
+            return buffer.readFloat();
+        }
+
+        @Override
+        int getFixedSize() {
+            return 4;
+        }
+    }
+
+    private static final class DoubleCodec extends FieldCodec {
+        private DoubleCodec(Field field) throws IllegalAccessException {
+            super(field, double.class);
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            buffer.writeDouble((double) _getter.invokeExact(packet));
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _setter.invokeExact(packet, buffer.readDouble());
+        }
+
+        @Override
+        Object readValue(PacketBuffer buffer, CodecContext context) {
+            return buffer.readDouble();
+        }
+
+        @Override
+        int getFixedSize() {
+            return 8;
+        }
+    }
+
+    /*
+     * OBJECTS
+     */
+
+    private static final class StringCodec extends FieldCodec {
+        private StringCodec(Field field) throws IllegalAccessException {
+            super(field, String.class);
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            final String value = (String) _getter.invokeExact(packet);
+            if (value == null) {
+                throw new IllegalArgumentException("Field '" + _name + "' is null!");
+            }
+            buffer.writeString(value);
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            final String value = readValue(buffer, context);
+            _setter.invokeExact(packet, value);
+        }
+
+        @Override
+        String readValue(PacketBuffer buffer, CodecContext context) {
+            return buffer.readString();
+        }
+
+        @Override
+        void skip(PacketBuffer buffer, CodecContext context) {
+            buffer.skipBytes(buffer.readInt());
+        }
+    }
+
+    private static final class ByteArrayCodec extends FieldCodec {
+        private ByteArrayCodec(Field field) throws IllegalAccessException {
+            super(field, byte[].class);
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            final byte[] value = (byte[]) _getter.invokeExact(packet);
+            if (value == null) {
+                throw new IllegalArgumentException("Field '" + _name + "' is null!");
+            }
+            buffer.writeByteArray(value);
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _setter.invokeExact(packet, buffer.readByteArray());
+        }
+
+        @Override
+        Object readValue(PacketBuffer buffer, CodecContext context) {
+            return buffer.readByteArray();
+        }
+
+        @Override
+        void skip(PacketBuffer buffer, CodecContext context) {
+            buffer.skipBytes(buffer.readInt());
+        }
+    }
+
+    private static final class BoxedCodec extends FieldCodec {
+
+        private BoxedCodec(Field field) throws IllegalAccessException {
+            super(field, Object.class);
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            final Object value = (Object) _getter.invokeExact(packet);
+            if (value == null) {
+                throw new IllegalArgumentException("Field '" + _name + "' is null!");
+            }
+            if (_type == Boolean.class) {
+                buffer.writeByte((Boolean) value ? (byte) 1 : (byte) 0);
+            } else if (_type == Byte.class) {
+                buffer.writeByte((Byte) value);
+            } else if (_type == Short.class) {
+                buffer.writeShort((Short) value);
+            } else if (_type == Integer.class) {
+                buffer.writeInt((Integer) value);
+            } else if (_type == Long.class) {
+                buffer.writeLong((Long) value);
+            } else if (_type == Float.class) {
+                buffer.writeFloat((Float) value);
+            } else {
+                buffer.writeDouble((Double) value);
+            }
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _setter.invokeExact(packet, readValue(buffer, context));
+        }
+
+        @Override
+        Object readValue(PacketBuffer buffer, CodecContext context) {
+            final Object value;
+            if (_type == Boolean.class) {
+                value = buffer.readByte() == 1;
+            } else if (_type == Byte.class) {
+                value = buffer.readByte();
+            } else if (_type == Short.class) {
+                value = buffer.readShort();
+            } else if (_type == Integer.class) {
+                value = buffer.readInt();
+            } else if (_type == Long.class) {
+                value = buffer.readLong();
+            } else if (_type == Float.class) {
+                value = buffer.readFloat();
+            } else {
+                value = buffer.readDouble();
+            }
+            return value;
+        }
+
+        @Override
+        int getFixedSize() {
+            if (_type == Boolean.class || _type == Byte.class) {
+                return 1;
+            } else if (_type == Short.class) {
+                return 2;
+            } else if (_type == Integer.class || _type == Float.class) {
+                return 4;
+            }
+            return 8;
+        }
+    }
+
+    /**
+     * Arrays, collections, maps and custom objects are stored in their binary form, see {@link ValueCodec}.
+     */
+    private static final class BinaryCodec extends FieldCodec {
+
+        private final ValueCodec _valueCodec;
+
+        private BinaryCodec(Field field, ValueCodec valueCodec) throws IllegalAccessException {
+            super(field, Object.class);
+            _valueCodec = valueCodec;
+        }
+
+        @Override
+        void write(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _valueCodec.write((Object) _getter.invokeExact(packet), buffer, context);
+        }
+
+        @Override
+        void read(Object packet, PacketBuffer buffer, CodecContext context) throws Throwable {
+            _setter.invokeExact(packet, _valueCodec.read(buffer, context));
+        }
+
+        @Override
+        Object readValue(PacketBuffer buffer, CodecContext context) {
+            return _valueCodec.read(buffer, context);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.codec;
+
+import de.minestar.conair.network.PacketBuffer;
+
+/**
+ * Codec for custom objects inside of packets. Codecs are registered per type in the {@link ObjectCodecRegistry}, every field (or element of an array, collection or map) of that type is then written by the codec directly into the {@link PacketBuffer}.
+ * <p>
+ * Types without a registered codec fall back to java-serialization, if they are {@link java.io.Serializable}.
+ * 
+ * @param <T>
+ *            the type
+ */
+public interface ObjectCodec<T> {
+
+    /**
+     * Write a value into the buffer. The value is never <code>null</code>.
+     * 
+     * @param value
+     *            the value
+     * @param buffer
+     *            the buffer
+     * @param context
+     *            the context of the connection
+     */
+    public void write(T value, PacketBuffer buffer, CodecContext context);
+
+    /**
+     * Read a value from the buffer.
+     * 
+     * @param buffer
+     *            the buffer
+     * @param context
+     *            the context of the connection
+     * 
+     * @return the value.
+     */
+    public T read(PacketBuffer buffer, CodecContext context);
+}
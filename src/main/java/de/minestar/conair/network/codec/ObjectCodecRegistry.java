@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class ObjectCodecRegistry {
+
+    private static final Map<Class<?>, ObjectCodec<?>> CODEC_MAP = new ConcurrentHashMap<Class<?>, ObjectCodec<?>>();
+    private static final Map<String, Class<?>> CLASS_MAP = new ConcurrentHashMap<String, Class<?>>();
+
+    private ObjectCodecRegistry() {
+    }
+
+    /**
+     * Register a codec for a type. Both sides of a connection must register the same codecs.
+     * 
+     * @param clazz
+     *            the type
+     * @param codec
+     *            the codec
+     * 
+     * @return <code>true</code> if the codec was registered, <code>false</code> if there already is a codec for the type.
+     */
+    public static <T> boolean registerCodec(Class<T> clazz, ObjectCodec<T> codec) {
+        if (CODEC_MAP.putIfAbsent(clazz, codec) != null) {
+            System.out.println("ObjectCodec for '" + clazz.getSimpleName() + "' is already registered!");
+            return false;
+        }
+        CLASS_MAP.put(clazz.getName(), clazz);
+        return true;
+    }
+
+    public static <T> boolean unregisterCodec(Class<T> clazz) {
+        CLASS_MAP.remove(clazz.getName());
+        return CODEC_MAP.remove(clazz) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> ObjectCodec<T> getCodec(Class<T> clazz) {
+        return (ObjectCodec<T>) CODEC_MAP.get(clazz);
+    }
+
+    public static Class<?> getClassByName(String className) {
+        return CLASS_MAP.get(className);
+    }
+}
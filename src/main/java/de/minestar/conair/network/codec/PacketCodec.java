@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.codec;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.minestar.conair.network.PacketBuffer;
+import de.minestar.conair.network.packets.NetworkPacket;
+import de.minestar.conair.network.utils.Unsafe;
+
+/**
+ * Encoder and decoder for a single packetclass. The fieldlayout is resolved once per class and cached, so packing and unpacking a packet does not need any reflection.
+ *
+ * @param <P>
+ *            the packetclass
+ */
+public final class PacketCodec<P extends NetworkPacket> {
+
+    private static final ClassValue<PacketCodec<?>> CODECS = new ClassValue<PacketCodec<?>>() {
+        @Override
+        protected PacketCodec<?> computeValue(Class<?> type) {
+            return create(type.asSubclass(NetworkPacket.class));
+        }
+    };
+
+    private static final MethodHandle PACKET_ID_SETTER;
+
+    static {
+        try {
+            final Field field = NetworkPacket.class.getDeclaredField("_packetID");
+            field.setAccessible(true);
+            PACKET_ID_SETTER = MethodHandles.lookup().unreflectSetter(field).asType(MethodType.methodType(void.class, NetworkPacket.class, int.class));
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static <P extends NetworkPacket> PacketCodec<P> create(Class<P> packetClass) {
+        return new PacketCodec<P>(packetClass);
+    }
+
+    private final Class<P> _packetClass;
+    private final FieldCodec[] _fieldCodecs;
+    private final Map<String, Integer> _fieldIndices;
+    // the offsets of all fields behind fixed-size fields only
+    private final int[] _fixedOffsets;
+    private final boolean _broadcastPacket;
+
+    private PacketCodec(Class<P> packetClass) {
+        _packetClass = packetClass;
+
+        // fields are sorted by name, so both sides agree on the order
+        final Map<String, FieldCodec> map = new TreeMap<String, FieldCodec>();
+        for (final Field field : packetClass.getDeclaredFields()) {
+            final int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || Modifier.isVolatile(modifiers)) {
+                continue;
+            }
+            try {
+                map.put(field.getName(), FieldCodec.create(field));
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Field '" + field.getName() + "' in '" + packetClass.getSimpleName() + "' is not accessible!", e);
+            }
+        }
+        _fieldCodecs = map.values().toArray(new FieldCodec[map.size()]);
+        _fieldIndices = new HashMap<String, Integer>();
+        for (int i = 0; i < _fieldCodecs.length; i++) {
+            _fieldIndices.put(_fieldCodecs[i].getName(), i);
+        }
+        int fixedFields = 0;
+        while (fixedFields < _fieldCodecs.length && _fieldCodecs[fixedFields].getFixedSize() >= 0) {
+            fixedFields++;
+        }
+        _fixedOffsets = new int[fixedFields + 1];
+        for (int i = 0; i < fixedFields; i++) {
+            _fixedOffsets[i + 1] = _fixedOffsets[i] + _fieldCodecs[i].getFixedSize();
+        }
+        _broadcastPacket = resolveBroadcastPacket(packetClass);
+    }
+
+    @SuppressWarnings("restriction")
+    private static boolean resolveBroadcastPacket(Class<? extends NetworkPacket> packetClass) {
+        try {
+            return ((NetworkPacket) Unsafe.get().allocateInstance(packetClass)).isBroadcastPacket();
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    /**
+     * Get the cached codec for a packetclass.
+     *
+     * @param packetClass
+     *            the packetclass
+     *
+     * @return the codec.
+     */
+    @SuppressWarnings("unchecked")
+    public static <P extends NetworkPacket> PacketCodec<P> forClass(Class<P> packetClass) {
+        return (PacketCodec<P>) CODECS.get(packetClass);
+    }
+
+    public Class<P> getPacketClass() {
+        return _packetClass;
+    }
+
+    /**
+     * Check if packets of this class are broadcasted, without creating a packet. The value of {@link NetworkPacket#isBroadcastPacket()} is resolved once per class.
+     *
+     * @return <code>true</code>, if the packets are broadcasted.
+     */
+    public boolean isBroadcastPacket() {
+        return _broadcastPacket;
+    }
+
+    /**
+     * Write all fields of the packet into the buffer.
+     *
+     * @param packet
+     *            the packet
+     * @param buffer
+     *            the buffer
+     * @param context
+     *            the context of the connection
+     * @throws BufferOverflowException
+     *             if the packet does not fit into the buffer
+     */
+    public void encode(P packet, PacketBuffer buffer, CodecContext context) throws IllegalArgumentException {
+        for (final FieldCodec codec : _fieldCodecs) {
+            try {
+                codec.write(packet, buffer, context);
+            } catch (IllegalArgumentException | BufferOverflowException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalArgumentException("Field '" + codec.getName() + "' could not be written!", t);
+            }
+        }
+    }
+
+    /**
+     * Create a new packet and read all fields from the buffer. The constructor of the packet is not called.
+     * <p>
+     * Fields which are missing at the end of the buffer keep their default value. Packets may therefore get new fields, as long as their names are sorted behind all existing fields, and still understand peers which do not know these fields yet.
+     *
+     * @param packetID
+     *            the ID of the packet
+     * @param buffer
+     *            the buffer
+     * @param context
+     *            the context of the connection
+     *
+     * @return the packet.
+     */
+    @SuppressWarnings({"unchecked", "restriction"})
+    public P decode(int packetID, PacketBuffer buffer, CodecContext context) throws IllegalArgumentException {
+        final P instance;
+        try {
+            instance = (P) Unsafe.get().allocateInstance(_packetClass);
+            PACKET_ID_SETTER.invokeExact((NetworkPacket) instance, packetID);
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("Packet '" + _packetClass.getSimpleName() + "' could not be created!", t);
+        }
+        for (final FieldCodec codec : _fieldCodecs) {
+            if (!buffer.getBuffer().hasRemaining()) {
+                break;
+            }
+            try {
+                codec.read(instance, buffer, context);
+            } catch (IllegalArgumentException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalArgumentException("Field '" + codec.getName() + "' could not be read!", t);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Create a view of an encoded packet, which reads single fields on demand.
+     *
+     * @param packetID
+     *            the ID of the packet
+     * @param packetData
+     *            the packetdata, from position to limit. The buffer itself is not changed.
+     * @param context
+     *            the context of the connection
+     *
+     * @return the view.
+     */
+    public PacketView<P> view(int packetID, ByteBuffer packetData, CodecContext context) {
+        return new PacketView<P>(this, packetID, packetData, context);
+    }
+
+    /*
+     * FIELD LAYOUT
+     */
+
+    int getFieldCount() {
+        return _fieldCodecs.length;
+    }
+
+    FieldCodec getFieldCodec(int index) {
+        return _fieldCodecs[index];
+    }
+
+    /**
+     * @return the index of the field in the encoded order, or <code>-1</code> if the packet has no such field.
+     */
+    int getFieldIndex(String name) {
+        final Integer index = _fieldIndices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return the offsets of the first fields, which only follow fixed-size fields. The last entry is the offset of the field behind them.
+     */
+    int[] getFixedOffsets() {
+        return _fixedOffsets;
+    }
+}
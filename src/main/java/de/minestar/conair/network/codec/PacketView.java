@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.codec;
+
+import java.nio.ByteBuffer;
+
+import de.minestar.conair.network.PacketBuffer;
+import de.minestar.conair.network.packets.NetworkPacket;
+
+/**
+ * Read-only view of an encoded packet. Single fields are read on demand from the packetdata, the packet itself is only created by {@link #toPacket()}.
+ * <p>
+ * Fields are addressed by their name. The offsets of fields behind fixed-size fields are known from the cached fieldlayout, other fields are found by skipping the fields in front of them once. Fields which are missing at the end of the packetdata have their default value, like in {@link PacketCodec#decode(int, PacketBuffer, CodecContext)}.
+ * <p>
+ * A view is not threadsafe and is only valid as long as the packetdata.
+ *
+ * @param <P>
+ *            the packetclass
+ */
+public final class PacketView<P extends NetworkPacket> {
+
+    private final PacketCodec<P> _codec;
+    private final int _packetID;
+    private final ByteBuffer _data;
+    private final CodecContext _context;
+    private final PacketBuffer _reader;
+
+    // the offsets of the first fields, relative to the start of the packetdata
+    private final int[] _offsets;
+    private int _knownOffsets;
+
+    private P _packet;
+
+    PacketView(PacketCodec<P> codec, int packetID, ByteBuffer packetData, CodecContext context) {
+        _codec = codec;
+        _packetID = packetID;
+        _data = packetData.slice();
+        _context = context;
+        _reader = new PacketBuffer(_data.duplicate());
+        _offsets = new int[codec.getFieldCount() + 1];
+        final int[] fixedOffsets = codec.getFixedOffsets();
+        System.arraycopy(fixedOffsets, 0, _offsets, 0, fixedOffsets.length);
+        _knownOffsets = fixedOffsets.length;
+    }
+
+    public int getPacketID() {
+        return _packetID;
+    }
+
+    public Class<P> getPacketClass() {
+        return _codec.getPacketClass();
+    }
+
+    /**
+     * @param name
+     *            the name of the field
+     * @return <code>true</code>, if the field is contained in the packetdata.
+     */
+    public boolean has(String name) {
+        final int index = _codec.getFieldIndex(name);
+        return index >= 0 && getOffset(index) >= 0;
+    }
+
+    public boolean getBoolean(String name) {
+        final int offset = getOffset(name, boolean.class, 1);
+        return offset >= 0 && _data.get(offset) == 1;
+    }
+
+    public byte getByte(String name) {
+        final int offset = getOffset(name, byte.class, 1);
+        return offset < 0 ? 0 : _data.get(offset);
+    }
+
+    public short getShort(String name) {
+        final int offset = getOffset(name, short.class, 2);
+        return offset < 0 ? 0 : _data.getShort(offset);
+    }
+
+    public int getInt(String name) {
+        final int offset = getOffset(name, int.class, 4);
+        return offset < 0 ? 0 : _data.getInt(offset);
+    }
+
+    public long getLong(String name) {
+        final int offset = getOffset(name, long.class, 8);
+        return offset < 0 ? 0L : _data.getLong(offset);
+    }
+
+    public float getFloat(String name) {
+        final int offset = getOffset(name, float.class, 4);
+        return offset < 0 ? 0F : _data.getFloat(offset);
+    }
+
+    public double getDouble(String name) {
+        final int offset = getOffset(name, double.class, 8);
+        return offset < 0 ? 0D : _data.getDouble(offset);
+    }
+
+    public String getString(String name) {
+        return (String) get(name, String.class);
+    }
+
+    /**
+     * Get the bytes of a <code>byte[]</code> field without copying them.
+     *
+     * @param name
+     *            the name of the field
+     * @return a read-only view of the bytes, or <code>null</code> if the field is missing.
+     */
+    public ByteBuffer getByteBuffer(String name) {
+        final int offset = getOffset(name, byte[].class, 4);
+        if (offset < 0) {
+            return null;
+        }
+        final int length = _data.getInt(offset);
+        if (length < 0 || length > _data.limit() - offset - 4) {
+            throw new IllegalArgumentException("Field '" + name + "' could not be read!");
+        }
+        final ByteBuffer bytes = _data.asReadOnlyBuffer();
+        bytes.limit(offset + 4 + length);
+        bytes.position(offset + 4);
+        return bytes.slice();
+    }
+
+    /**
+     * Read a field of any type. Primitive values are boxed.
+     *
+     * @param name
+     *            the name of the field
+     * @return the value, or <code>null</code> if the field is missing.
+     */
+    public Object get(String name) {
+        return get(name, null);
+    }
+
+    /**
+     * Decode the whole packet. The packet is created once and returned again by later calls.
+     *
+     * @return the packet.
+     * @throws IllegalArgumentException
+     *             if the packet could not be decoded
+     */
+    public P toPacket() throws IllegalArgumentException {
+        if (_packet == null) {
+            _packet = _codec.decode(_packetID, new PacketBuffer(_data.duplicate()), _context);
+        }
+        return _packet;
+    }
+
+    /**
+     * @return <code>true</code>, if the packet was created by {@link #toPacket()}.
+     */
+    public boolean isMaterialized() {
+        return _packet != null;
+    }
+
+    private Object get(String name, Class<?> type) {
+        final int index = getIndex(name, type);
+        final int offset = getOffset(index);
+        if (offset < 0) {
+            return null;
+        }
+        final FieldCodec codec = _codec.getFieldCodec(index);
+        _reader.getBuffer().position(offset);
+        try {
+            return codec.readValue(_reader, _context);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("Field '" + name + "' could not be read!", t);
+        }
+    }
+
+    private int getOffset(String name, Class<?> type, int size) {
+        final int offset = getOffset(getIndex(name, type));
+        if (offset >= 0 && offset + size > _data.limit()) {
+            throw new IllegalArgumentException("Field '" + name + "' could not be read!");
+        }
+        return offset;
+    }
+
+    private int getIndex(String name, Class<?> type) {
+        final int index = _codec.getFieldIndex(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown field '" + name + "' in '" + _codec.getPacketClass().getSimpleName() + "'!");
+        }
+        if (type != null && _codec.getFieldCodec(index).getType() != type) {
+            throw new IllegalArgumentException("Field '" + name + "' is not of type " + type.getSimpleName() + "!");
+        }
+        return index;
+    }
+
+    // the offset of a field, or -1 if the packetdata ends in front of it
+    private int getOffset(int index) {
+        while (_knownOffsets <= index) {
+            final int previous = _knownOffsets - 1;
+            if (_offsets[previous] >= _data.limit()) {
+                return -1;
+            }
+            _reader.getBuffer().position(_offsets[previous]);
+            try {
+                _codec.getFieldCodec(previous).skip(_reader, _context);
+            } catch (IllegalArgumentException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalArgumentException("Field '" + _codec.getFieldCodec(previous).getName() + "' could not be read!", t);
+            }
+            _offsets[_knownOffsets++] = _reader.getBuffer().position();
+        }
+        return _offsets[index] < _data.limit() ? _offsets[index] : -1;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+import de.minestar.conair.network.PacketBuffer;
+
+/**
+ * Last-resort fallback for {@link Serializable} objects without an {@link ObjectCodec}. The serialized bytes are written raw into the buffer, without the streamheader.
+ * <p>
+ * The classdescriptors are always sent in full, so the receiver checks the serialVersionUID and the fields like plain serialization does. If the {@link CodecContext} has a {@link ClassDescriptorTable}, every descriptor is only sent once per connection and referenced by its slot afterwards. Every descriptor starts with a varint tag: <code>0</code> for a full descriptor, <code>(slot + 1) &lt;&lt; 1</code> for a full descriptor, which is kept in the slot, and <code>(slot &lt;&lt; 1) | 1</code> for a descriptor, which was sent before.
+ */
+final class SerializationCodec {
+
+    private SerializationCodec() {
+    }
+
+    static void write(Serializable value, PacketBuffer buffer, CodecContext context) {
+        try {
+            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(256);
+            final ObjectOutputStream objectOutputStream = new CompactObjectOutputStream(byteArrayOutputStream, context.getClassDescriptorTable());
+            objectOutputStream.writeObject(value);
+            objectOutputStream.close();
+            final byte[] data = byteArrayOutputStream.toByteArray();
+            buffer.writeVarInt(data.length);
+            buffer.writeBytes(data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Object of type '" + value.getClass().getSimpleName() + "' could not be serialized!", e);
+        }
+    }
+
+    static Object read(PacketBuffer buffer, CodecContext context, ClassLoader classLoader) {
+        final int length = buffer.readVarInt();
+        ValueCodec.checkLength(buffer, length, 1);
+        final byte[] data = new byte[length];
+        buffer.readBytes(data);
+        try {
+            final ObjectInputStream objectInputStream = new CompactObjectInputStream(new ByteArrayInputStream(data), context, classLoader);
+            final Object object = objectInputStream.readObject();
+            objectInputStream.close();
+            return object;
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException("Object could not be deserialized!", e);
+        }
+    }
+
+    private static final class CompactObjectOutputStream extends ObjectOutputStream {
+
+        private final ClassDescriptorTable _table;
+
+        private CompactObjectOutputStream(OutputStream out, ClassDescriptorTable table) throws IOException {
+            super(out);
+            _table = table;
+        }
+
+        @Override
+        protected void writeStreamHeader() throws IOException {
+            // no header
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            final int slot = _table == null ? -1 : _table.getSlot(desc);
+            if (slot < 0) {
+                writeTag(0);
+            } else if ((slot & 1) == 0) {
+                // the receiver already knows the descriptor
+                writeTag(slot | 1);
+                return;
+            } else {
+                writeTag(((slot >>> 1) + 1) << 1);
+            }
+            super.writeClassDescriptor(desc);
+        }
+
+        private void writeTag(int tag) throws IOException {
+            while ((tag & ~0x7F) != 0) {
+                write((tag & 0x7F) | 0x80);
+                tag >>>= 7;
+            }
+            write(tag);
+        }
+    }
+
+    private static final class CompactObjectInputStream extends ObjectInputStream {
+
+        private final CodecContext _context;
+        private final ClassLoader _classLoader;
+
+        private CompactObjectInputStream(InputStream in, CodecContext context, ClassLoader classLoader) throws IOException {
+            super(in);
+            _context = context;
+            _classLoader = classLoader;
+        }
+
+        @Override
+        protected void readStreamHeader() throws IOException {
+            // no header
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            final int tag = readTag();
+            if ((tag & 1) != 0) {
+                return getTable().get(tag >>> 1);
+            }
+            // the local class is checked against the full descriptor, when it is resolved
+            final ObjectStreamClass descriptor = super.readClassDescriptor();
+            if (tag != 0) {
+                getTable().put((tag >>> 1) - 1, descriptor);
+            }
+            return descriptor;
+        }
+
+        private ClassDescriptorTable getTable() throws IOException {
+            final ClassDescriptorTable table = _context.getClassDescriptorTable();
+            if (table == null) {
+                throw new IOException("Class descriptor slot without a table!");
+            }
+            return table;
+        }
+
+        private int readTag() throws IOException {
+            int tag = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = readUnsignedByte();
+                tag |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return tag;
+                }
+            }
+            throw new IOException("Invalid descriptor tag!");
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, _classLoader != null ? _classLoader : _context.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
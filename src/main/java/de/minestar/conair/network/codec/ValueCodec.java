@@ -0,0 +1,870 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.codec;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntFunction;
+
+import de.minestar.conair.network.PacketBuffer;
+
+/**
+ * Binary encoding for arrays, collections, maps and custom objects.
+ * <p>
+ * Arrays, collections and maps are written as a varint holding <code>length + 1</code> followed by their elements, a length of <code>0</code> marks <code>null</code>. If the elementtype is known from the generic signature of the field, the elements are written without any typeinformation. Otherwise every element is prefixed by a single tagbyte. Custom objects are written by their {@link ObjectCodec}.
+ */
+abstract class ValueCodec {
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_BOOLEAN = 1;
+    private static final byte TAG_BYTE = 2;
+    private static final byte TAG_SHORT = 3;
+    private static final byte TAG_INT = 4;
+    private static final byte TAG_LONG = 5;
+    private static final byte TAG_FLOAT = 6;
+    private static final byte TAG_DOUBLE = 7;
+    private static final byte TAG_STRING = 8;
+    private static final byte TAG_BYTE_ARRAY = 9;
+    private static final byte TAG_INT_ARRAY = 10;
+    private static final byte TAG_STRING_ARRAY = 11;
+    private static final byte TAG_LIST = 12;
+    private static final byte TAG_SET = 13;
+    private static final byte TAG_MAP = 14;
+    private static final byte TAG_OBJECT = 15;
+    private static final byte TAG_SERIALIZED = 16;
+
+    private static final byte OBJECT_NULL = 0;
+    private static final byte OBJECT_CODEC = 1;
+    private static final byte OBJECT_SERIALIZED = 2;
+
+    // every value is written with at least one byte, so a length can never exceed the remaining bytes
+    private static final int MIN_VALUE_SIZE = 1;
+
+    abstract void write(Object value, PacketBuffer buffer, CodecContext context);
+
+    abstract Object read(PacketBuffer buffer, CodecContext context);
+
+    /**
+     * Get the codec for a given (generic) type.
+     *
+     * @param type
+     *            the type
+     *
+     * @return the codec.
+     */
+    static ValueCodec forType(Type type) {
+        final Class<?> clazz = rawType(type);
+        if (clazz == null || clazz.equals(Object.class)) {
+            return DYNAMIC;
+        }
+        if (clazz.equals(String.class)) {
+            return STRING;
+        }
+        if (clazz.equals(Boolean.class) || clazz.equals(boolean.class)) {
+            return BOOLEAN;
+        }
+        if (clazz.equals(Byte.class) || clazz.equals(byte.class)) {
+            return BYTE;
+        }
+        if (clazz.equals(Short.class) || clazz.equals(short.class)) {
+            return SHORT;
+        }
+        if (clazz.equals(Integer.class) || clazz.equals(int.class)) {
+            return INT;
+        }
+        if (clazz.equals(Long.class) || clazz.equals(long.class)) {
+            return LONG;
+        }
+        if (clazz.equals(Float.class) || clazz.equals(float.class)) {
+            return FLOAT;
+        }
+        if (clazz.equals(Double.class) || clazz.equals(double.class)) {
+            return DOUBLE;
+        }
+        if (clazz.isArray()) {
+            if (clazz.equals(byte[].class)) {
+                return BYTE_ARRAY;
+            }
+            if (clazz.getComponentType().isPrimitive()) {
+                return new PrimitiveArrayCodec(clazz.getComponentType());
+            }
+            final Type componentType = (type instanceof GenericArrayType) ? ((GenericArrayType) type).getGenericComponentType() : clazz.getComponentType();
+            return new ObjectArrayCodec(clazz.getComponentType(), forElementType(componentType));
+        }
+        if (Map.class.isAssignableFrom(clazz)) {
+            final IntFunction<Map<Object, Object>> factory = mapFactory(clazz);
+            if (factory != null) {
+                return new MapCodec(factory, forElementType(typeArgument(type, 0)), forElementType(typeArgument(type, 1)));
+            }
+        }
+        if (Collection.class.isAssignableFrom(clazz)) {
+            final IntFunction<Collection<Object>> factory = collectionFactory(clazz);
+            if (factory != null) {
+                return new CollectionCodec(factory, forElementType(typeArgument(type, 0)));
+            }
+        }
+        return new ObjectValueCodec(clazz);
+    }
+
+    /**
+     * Elements without a concrete type (wildcards, typevariables, Object, Number...) are written with a tagbyte.
+     */
+    private static ValueCodec forElementType(Type type) {
+        final Class<?> clazz = rawType(type);
+        if (clazz == null || clazz.equals(Number.class) || clazz.equals(Serializable.class) || clazz.equals(Comparable.class) || clazz.equals(CharSequence.class)) {
+            return DYNAMIC;
+        }
+        return forType(type);
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return rawType(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            final Class<?> componentType = rawType(((GenericArrayType) type).getGenericComponentType());
+            return componentType == null ? null : Array.newInstance(componentType, 0).getClass();
+        }
+        return null;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            final Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static IntFunction<Collection<Object>> collectionFactory(Class<?> clazz) {
+        if (!clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers())) {
+            final MethodHandle constructor = constructor(clazz);
+            if (constructor == null) {
+                return null;
+            }
+            return size -> {
+                try {
+                    return (Collection<Object>) constructor.invoke();
+                } catch (Throwable t) {
+                    throw new IllegalArgumentException("Could not create '" + clazz.getSimpleName() + "'!", t);
+                }
+            };
+        }
+        if (clazz.isAssignableFrom(ArrayList.class)) {
+            return size -> new ArrayList<Object>(size);
+        }
+        if (clazz.isAssignableFrom(HashSet.class)) {
+            return size -> new HashSet<Object>(size * 2);
+        }
+        if (clazz.equals(SortedSet.class) || clazz.equals(NavigableSet.class)) {
+            return size -> new TreeSet<Object>();
+        }
+        if (clazz.isAssignableFrom(ArrayDeque.class)) {
+            return size -> new ArrayDeque<Object>(size);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static IntFunction<Map<Object, Object>> mapFactory(Class<?> clazz) {
+        if (!clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers())) {
+            final MethodHandle constructor = constructor(clazz);
+            if (constructor == null) {
+                return null;
+            }
+            return size -> {
+                try {
+                    return (Map<Object, Object>) constructor.invoke();
+                } catch (Throwable t) {
+                    throw new IllegalArgumentException("Could not create '" + clazz.getSimpleName() + "'!", t);
+                }
+            };
+        }
+        if (clazz.isAssignableFrom(HashMap.class)) {
+            return size -> new HashMap<Object, Object>(size * 2);
+        }
+        if (clazz.equals(SortedMap.class) || clazz.equals(NavigableMap.class)) {
+            return size -> new TreeMap<Object, Object>();
+        }
+        if (clazz.equals(ConcurrentMap.class)) {
+            return size -> new ConcurrentHashMap<Object, Object>(size * 2);
+        }
+        return null;
+    }
+
+    private static MethodHandle constructor(Class<?> clazz) {
+        try {
+            return MethodHandles.publicLookup().findConstructor(clazz, MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /*
+     * LENGTHS
+     */
+
+    static void writeLength(PacketBuffer buffer, Object value, int length) {
+        buffer.writeVarInt(value == null ? 0 : length + 1);
+    }
+
+    static int readLength(PacketBuffer buffer) {
+        return buffer.readVarInt() - 1;
+    }
+
+    /**
+     * Read the length of an array, a collection or a map and check it against the remaining bytes, before anything is allocated for it.
+     *
+     * @param elementSize
+     *            the minimum number of bytes of a single element
+     * @return the length, or <code>-1</code> for <code>null</code>.
+     */
+    static int readLength(PacketBuffer buffer, int elementSize) {
+        final int length = readLength(buffer);
+        if (length >= 0) {
+            checkLength(buffer, length, elementSize);
+        }
+        return length;
+    }
+
+    static void checkLength(PacketBuffer buffer, int length, int elementSize) {
+        if (length < 0 || length > buffer.getBuffer().remaining() / elementSize) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+    }
+
+    private static IllegalArgumentException nullElement() {
+        return new IllegalArgumentException("Element must not be null!");
+    }
+
+    /*
+     * SIMPLE VALUES
+     */
+
+    static final ValueCodec STRING = new ValueCodec() {
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            buffer.writeNullableString((String) value);
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            return buffer.readNullableString();
+        }
+    };
+
+    static final ValueCodec BOOLEAN = new ValueCodec() {
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            if (value == null) {
+                throw nullElement();
+            }
+            buffer.writeByte((Boolean) value ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            return buffer.readByte() == 1;
+        }
+    };
+
+    static final ValueCodec BYTE = new ValueCodec() {
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            if (value == null) {
+                throw nullElement();
+            }
+            buffer.writeByte((Byte) value);
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            return buffer.readByte();
+        }
+    };
+
+    static final ValueCodec SHORT = new ValueCodec() {
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            if (value == null) {
+                throw nullElement();
+            }
+            buffer.writeShort((Short) value);
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            return buffer.readShort();
+        }
+    };
+
+    static final ValueCodec INT = new ValueCodec() {
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            if (value == null) {
+                throw nullElement();
+            }
+            buffer.writeInt((Integer) value);
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            return buffer.readInt();
+        }
+    };
+
+    static final ValueCodec LONG = new ValueCodec() {
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            if (value == null) {
+                throw nullElement();
+            }
+            buffer.writeLong((Long) value);
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            return buffer.readLong();
+        }
+    };
+
+    static final ValueCodec FLOAT = new ValueCodec() {
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            if (value == null) {
+                throw nullElement();
+            }
+            buffer.writeFloat((Float) value);
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            return buffer.readFloat();
+        }
+    };
+
+    static final ValueCodec DOUBLE = new ValueCodec() {
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            if (value == null) {
+                throw nullElement();
+            }
+            buffer.writeDouble((Double) value);
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            return buffer.readDouble();
+        }
+    };
+
+    static final ValueCodec BYTE_ARRAY = new ValueCodec() {
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            final byte[] array = (byte[]) value;
+            writeLength(buffer, array, array == null ? 0 : array.length);
+            if (array != null) {
+                buffer.writeBytes(array);
+            }
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            final int length = readLength(buffer, 1);
+            if (length < 0) {
+                return null;
+            }
+            final byte[] array = new byte[length];
+            buffer.readBytes(array);
+            return array;
+        }
+    };
+
+    /*
+     * ARRAYS
+     */
+
+    private static final class PrimitiveArrayCodec extends ValueCodec {
+
+        private final Class<?> _componentType;
+        private final int _elementSize;
+
+        private PrimitiveArrayCodec(Class<?> componentType) {
+            _componentType = componentType;
+            _elementSize = elementSize(componentType);
+        }
+
+        private static int elementSize(Class<?> componentType) {
+            if (componentType == long.class || componentType == double.class) {
+                return 8;
+            }
+            if (componentType == int.class || componentType == float.class) {
+                return 4;
+            }
+            if (componentType == short.class || componentType == char.class) {
+                return 2;
+            }
+            return 1;
+        }
+
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            final int length = value == null ? 0 : Array.getLength(value);
+            writeLength(buffer, value, length);
+            if (value == null) {
+                return;
+            }
+            if (_componentType == int.class) {
+                for (final int element : (int[]) value) {
+                    buffer.writeInt(element);
+                }
+            } else if (_componentType == long.class) {
+                for (final long element : (long[]) value) {
+                    buffer.writeLong(element);
+                }
+            } else if (_componentType == short.class) {
+                for (final short element : (short[]) value) {
+                    buffer.writeShort(element);
+                }
+            } else if (_componentType == double.class) {
+                for (final double element : (double[]) value) {
+                    buffer.writeDouble(element);
+                }
+            } else if (_componentType == float.class) {
+                for (final float element : (float[]) value) {
+                    buffer.writeFloat(element);
+                }
+            } else if (_componentType == char.class) {
+                for (final char element : (char[]) value) {
+                    buffer.writeChar(element);
+                }
+            } else if (_componentType == boolean.class) {
+                for (final boolean element : (boolean[]) value) {
+                    buffer.writeByte(element ? (byte) 1 : (byte) 0);
+                }
+            } else {
+                buffer.writeBytes((byte[]) value);
+            }
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            final int length = readLength(buffer, _elementSize);
+            if (length < 0) {
+                return null;
+            }
+            if (_componentType == int.class) {
+                final int[] array = new int[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = buffer.readInt();
+                }
+                return array;
+            } else if (_componentType == long.class) {
+                final long[] array = new long[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = buffer.readLong();
+                }
+                return array;
+            } else if (_componentType == short.class) {
+                final short[] array = new short[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = buffer.readShort();
+                }
+                return array;
+            } else if (_componentType == double.class) {
+                final double[] array = new double[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = buffer.readDouble();
+                }
+                return array;
+            } else if (_componentType == float.class) {
+                final float[] array = new float[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = buffer.readFloat();
+                }
+                return array;
+            } else if (_componentType == char.class) {
+                final char[] array = new char[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = buffer.readChar();
+                }
+                return array;
+            } else if (_componentType == boolean.class) {
+                final boolean[] array = new boolean[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = buffer.readByte() == 1;
+                }
+                return array;
+            } else {
+                final byte[] array = new byte[length];
+                buffer.readBytes(array);
+                return array;
+            }
+        }
+    }
+
+    private static final class ObjectArrayCodec extends ValueCodec {
+
+        private final Class<?> _componentType;
+        private final ValueCodec _componentCodec;
+
+        private ObjectArrayCodec(Class<?> componentType, ValueCodec componentCodec) {
+            _componentType = componentType;
+            _componentCodec = componentCodec;
+        }
+
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            final Object[] array = (Object[]) value;
+            writeLength(buffer, array, array == null ? 0 : array.length);
+            if (array != null) {
+                for (final Object element : array) {
+                    _componentCodec.write(element, buffer, context);
+                }
+            }
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            final int length = readLength(buffer, MIN_VALUE_SIZE);
+            if (length < 0) {
+                return null;
+            }
+            final Object[] array = (Object[]) Array.newInstance(_componentType, length);
+            for (int i = 0; i < length; i++) {
+                array[i] = _componentCodec.read(buffer, context);
+            }
+            return array;
+        }
+    }
+
+    /*
+     * COLLECTIONS
+     */
+
+    private static final class CollectionCodec extends ValueCodec {
+
+        private final IntFunction<Collection<Object>> _factory;
+        private final ValueCodec _elementCodec;
+
+        private CollectionCodec(IntFunction<Collection<Object>> factory, ValueCodec elementCodec) {
+            _factory = factory;
+            _elementCodec = elementCodec;
+        }
+
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            final Collection<?> collection = (Collection<?>) value;
+            writeLength(buffer, collection, collection == null ? 0 : collection.size());
+            if (collection != null) {
+                for (final Object element : collection) {
+                    _elementCodec.write(element, buffer, context);
+                }
+            }
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            final int length = readLength(buffer, MIN_VALUE_SIZE);
+            if (length < 0) {
+                return null;
+            }
+            final Collection<Object> collection = _factory.apply(length);
+            for (int i = 0; i < length; i++) {
+                collection.add(_elementCodec.read(buffer, context));
+            }
+            return collection;
+        }
+    }
+
+    private static final class MapCodec extends ValueCodec {
+
+        private final IntFunction<Map<Object, Object>> _factory;
+        private final ValueCodec _keyCodec;
+        private final ValueCodec _valueCodec;
+
+        private MapCodec(IntFunction<Map<Object, Object>> factory, ValueCodec keyCodec, ValueCodec valueCodec) {
+            _factory = factory;
+            _keyCodec = keyCodec;
+            _valueCodec = valueCodec;
+        }
+
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            writeLength(buffer, map, map == null ? 0 : map.size());
+            if (map != null) {
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    _keyCodec.write(entry.getKey(), buffer, context);
+                    _valueCodec.write(entry.getValue(), buffer, context);
+                }
+            }
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            final int length = readLength(buffer, 2 * MIN_VALUE_SIZE);
+            if (length < 0) {
+                return null;
+            }
+            final Map<Object, Object> map = _factory.apply(length);
+            for (int i = 0; i < length; i++) {
+                final Object key = _keyCodec.read(buffer, context);
+                map.put(key, _valueCodec.read(buffer, context));
+            }
+            return map;
+        }
+    }
+
+    /*
+     * CUSTOM OBJECTS
+     */
+
+    /**
+     * Objects are written by their registered {@link ObjectCodec}. If there is none, {@link Serializable} objects are written by the {@link SerializationCodec}.
+     */
+    private static final class ObjectValueCodec extends ValueCodec {
+
+        private final Class<Object> _type;
+
+        @SuppressWarnings("unchecked")
+        private ObjectValueCodec(Class<?> type) {
+            _type = (Class<Object>) type;
+        }
+
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            if (value == null) {
+                buffer.writeByte(OBJECT_NULL);
+                return;
+            }
+            final ObjectCodec<Object> codec = ObjectCodecRegistry.getCodec(_type);
+            if (codec != null) {
+                buffer.writeByte(OBJECT_CODEC);
+                codec.write(value, buffer, context);
+            } else if (value instanceof Serializable) {
+                buffer.writeByte(OBJECT_SERIALIZED);
+                SerializationCodec.write((Serializable) value, buffer, context);
+            } else {
+                throw new IllegalArgumentException("Value of type '" + _type.getSimpleName() + "' could not be written (no ObjectCodec registered)!");
+            }
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            final byte type = buffer.readByte();
+            if (type == OBJECT_NULL) {
+                return null;
+            }
+            if (type == OBJECT_SERIALIZED) {
+                return SerializationCodec.read(buffer, context, _type.getClassLoader());
+            }
+            final ObjectCodec<Object> codec = ObjectCodecRegistry.getCodec(_type);
+            if (codec == null) {
+                throw new IllegalArgumentException("Value of type '" + _type.getSimpleName() + "' could not be read (no ObjectCodec registered)!");
+            }
+            return codec.read(buffer, context);
+        }
+    }
+
+    /*
+     * UNTYPED VALUES
+     */
+
+    static final ValueCodec DYNAMIC = new ValueCodec() {
+        @Override
+        void write(Object value, PacketBuffer buffer, CodecContext context) {
+            if (value == null) {
+                buffer.writeByte(TAG_NULL);
+            } else if (value instanceof String) {
+                buffer.writeByte(TAG_STRING);
+                STRING.write(value, buffer, context);
+            } else if (value instanceof Integer) {
+                buffer.writeByte(TAG_INT);
+                INT.write(value, buffer, context);
+            } else if (value instanceof Long) {
+                buffer.writeByte(TAG_LONG);
+                LONG.write(value, buffer, context);
+            } else if (value instanceof Boolean) {
+                buffer.writeByte(TAG_BOOLEAN);
+                BOOLEAN.write(value, buffer, context);
+            } else if (value instanceof Double) {
+                buffer.writeByte(TAG_DOUBLE);
+                DOUBLE.write(value, buffer, context);
+            } else if (value instanceof Float) {
+                buffer.writeByte(TAG_FLOAT);
+                FLOAT.write(value, buffer, context);
+            } else if (value instanceof Short) {
+                buffer.writeByte(TAG_SHORT);
+                SHORT.write(value, buffer, context);
+            } else if (value instanceof Byte) {
+                buffer.writeByte(TAG_BYTE);
+                BYTE.write(value, buffer, context);
+            } else if (value instanceof byte[]) {
+                buffer.writeByte(TAG_BYTE_ARRAY);
+                BYTE_ARRAY.write(value, buffer, context);
+            } else if (value instanceof int[]) {
+                buffer.writeByte(TAG_INT_ARRAY);
+                INT_ARRAY.write(value, buffer, context);
+            } else if (value instanceof String[]) {
+                buffer.writeByte(TAG_STRING_ARRAY);
+                STRING_ARRAY.write(value, buffer, context);
+            } else if (value instanceof Set) {
+                buffer.writeByte(TAG_SET);
+                writeElements((Collection<?>) value, buffer, context);
+            } else if (value instanceof Collection) {
+                buffer.writeByte(TAG_LIST);
+                writeElements((Collection<?>) value, buffer, context);
+            } else if (value instanceof Map) {
+                buffer.writeByte(TAG_MAP);
+                final Map<?, ?> map = (Map<?, ?>) value;
+                buffer.writeVarInt(map.size());
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    write(entry.getKey(), buffer, context);
+                    write(entry.getValue(), buffer, context);
+                }
+            } else {
+                @SuppressWarnings("unchecked")
+                final Class<Object> clazz = (Class<Object>) value.getClass();
+                final ObjectCodec<Object> codec = ObjectCodecRegistry.getCodec(clazz);
+                if (codec != null) {
+                    buffer.writeByte(TAG_OBJECT);
+                    buffer.writeNullableString(clazz.getName());
+                    codec.write(value, buffer, context);
+                } else if (value instanceof Serializable) {
+                    buffer.writeByte(TAG_SERIALIZED);
+                    SerializationCodec.write((Serializable) value, buffer, context);
+                } else {
+                    throw new IllegalArgumentException("Value of type '" + clazz.getSimpleName() + "' could not be written (unknown datatype)!");
+                }
+            }
+        }
+
+        private void writeElements(Collection<?> collection, PacketBuffer buffer, CodecContext context) {
+            buffer.writeVarInt(collection.size());
+            for (final Object element : collection) {
+                write(element, buffer, context);
+            }
+        }
+
+        @Override
+        Object read(PacketBuffer buffer, CodecContext context) {
+            final byte tag = buffer.readByte();
+            switch (tag) {
+                case TAG_NULL :
+                    return null;
+                case TAG_BOOLEAN :
+                    return BOOLEAN.read(buffer, context);
+                case TAG_BYTE :
+                    return BYTE.read(buffer, context);
+                case TAG_SHORT :
+                    return SHORT.read(buffer, context);
+                case TAG_INT :
+                    return INT.read(buffer, context);
+                case TAG_LONG :
+                    return LONG.read(buffer, context);
+                case TAG_FLOAT :
+                    return FLOAT.read(buffer, context);
+                case TAG_DOUBLE :
+                    return DOUBLE.read(buffer, context);
+                case TAG_STRING :
+                    return STRING.read(buffer, context);
+                case TAG_BYTE_ARRAY :
+                    return BYTE_ARRAY.read(buffer, context);
+                case TAG_INT_ARRAY :
+                    return INT_ARRAY.read(buffer, context);
+                case TAG_STRING_ARRAY :
+                    return STRING_ARRAY.read(buffer, context);
+                case TAG_LIST : {
+                    final int length = buffer.readVarInt();
+                    checkLength(buffer, length, MIN_VALUE_SIZE);
+                    final List<Object> list = new ArrayList<Object>(length);
+                    for (int i = 0; i < length; i++) {
+                        list.add(read(buffer, context));
+                    }
+                    return list;
+                }
+                case TAG_SET : {
+                    final int length = buffer.readVarInt();
+                    checkLength(buffer, length, MIN_VALUE_SIZE);
+                    final Set<Object> set = new HashSet<Object>(length * 2);
+                    for (int i = 0; i < length; i++) {
+                        set.add(read(buffer, context));
+                    }
+                    return set;
+                }
+                case TAG_MAP : {
+                    final int length = buffer.readVarInt();
+                    checkLength(buffer, length, 2 * MIN_VALUE_SIZE);
+                    final Map<Object, Object> map = new HashMap<Object, Object>(length * 2);
+                    for (int i = 0; i < length; i++) {
+                        final Object key = read(buffer, context);
+                        map.put(key, read(buffer, context));
+                    }
+                    return map;
+                }
+                case TAG_OBJECT : {
+                    final String className = buffer.readNullableString();
+                    final Class<?> clazz = ObjectCodecRegistry.getClassByName(className);
+                    if (clazz == null) {
+                        throw new IllegalArgumentException("No ObjectCodec registered for '" + className + "'!");
+                    }
+                    return ObjectCodecRegistry.getCodec(clazz).read(buffer, context);
+                }
+                case TAG_SERIALIZED :
+                    return SerializationCodec.read(buffer, context, null);
+                default :
+                    throw new IllegalArgumentException("Unknown valuetag: " + tag);
+            }
+        }
+    };
+
+    private static final ValueCodec INT_ARRAY = new PrimitiveArrayCodec(int.class);
+
+    private static final ValueCodec STRING_ARRAY = new ObjectArrayCodec(String.class, STRING);
+}
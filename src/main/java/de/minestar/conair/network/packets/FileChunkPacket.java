@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.packets;
+
+/**
+ * A part of a file, which is sent by a {@link de.minestar.conair.network.FileTransfer FileTransfer}. Fields are encoded sorted by name, so the payload is always the last field and its bytes end the packetdata.
+ */
+public class FileChunkPacket extends NetworkPacket {
+
+    private String _fileName;
+    private long _fileSize;
+    // the sender chooses the ID, the chunks of a file are sent in order
+    private long _id;
+    private long _offset;
+    // must stay the last field by name
+    private byte[] _payload;
+
+    public FileChunkPacket(long id, String fileName, long fileSize, long offset, byte[] payload) {
+        _id = id;
+        _fileName = fileName;
+        _fileSize = fileSize;
+        _offset = offset;
+        _payload = payload;
+    }
+
+    public long getID() {
+        return _id;
+    }
+
+    public String getFileName() {
+        return _fileName;
+    }
+
+    public long getFileSize() {
+        return _fileSize;
+    }
+
+    /**
+     * @return the position of the payload within the file.
+     */
+    public long getOffset() {
+        return _offset;
+    }
+
+    public byte[] getPayload() {
+        return _payload;
+    }
+}
@@ -18,35 +18,29 @@
 
 package de.minestar.conair.network.packets;
 
-import java.io.Serializable;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.Collection;
-import java.util.Map;
-import java.util.TreeMap;
-
 import de.minestar.conair.network.PacketBuffer;
-import de.minestar.conair.network.PacketType;
-import de.minestar.conair.network.utils.XmlUtils;
+import de.minestar.conair.network.codec.CodecContext;
+import de.minestar.conair.network.codec.PacketCodec;
 
 public abstract class NetworkPacket {
 
-    private static final String PREFIX_ARRAY = "[ARRAY]";
-    private static final String PREFIX_COLLECTION = "[COLLECTION]";
-    private static final String PREFIX_OBJECT = "[OBJECT]";
-
     public static final byte PACKET_SEPERATOR = 3;
 
     protected int _packetID = -1;
 
     public boolean pack(PacketBuffer buffer) {
-        Integer packetID = PacketType.getID(getClass());
+        return pack(buffer, CodecContext.DEFAULT);
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean pack(PacketBuffer buffer, CodecContext context) {
+        Integer packetID = context.getPacketRegistry().getID(getClass());
         if (packetID != null) {
             buffer.writeInt(0); // Size
             buffer.writeInt(packetID); // Type
             try {
-                onSend(buffer);
-            } catch (IllegalArgumentException | IllegalAccessException e) {
+                PacketCodec.forClass((Class<NetworkPacket>) getClass()).encode(this, buffer, context);
+            } catch (IllegalArgumentException e) {
                 e.printStackTrace();
                 return false;
             }
@@ -66,172 +60,4 @@ public abstract class NetworkPacket {
         return true;
     }
 
-    private Collection<Field> getFields() {
-        final Field[] declaredFields = getClass().getDeclaredFields();
-        final Map<String, Field> map = new TreeMap<String, Field>();
-        for (final Field field : declaredFields) {
-            if (Modifier.isTransient(field.getModifiers()) || Modifier.isVolatile(field.getModifiers())) {
-                continue;
-            }
-            map.put(field.getName(), field);
-        }
-        return map.values();
-    }
-
-    private final void onSend(PacketBuffer buffer) throws IllegalArgumentException, IllegalAccessException {
-        final Collection<Field> fields = getFields();
-
-        // finally write the fields
-        for (final Field field : fields) {
-            field.setAccessible(true);
-            if (!writeObjectIntoBuffer(buffer, field.get(this))) {
-                throw new IllegalArgumentException("Field '" + field.getName() + "' could not be written (unknown datatype)!");
-            }
-            field.setAccessible(false);
-        }
-    }
-
-    private boolean writeObjectIntoBuffer(final PacketBuffer buffer, final Object value) {
-        if (value.getClass().equals(boolean.class) || value.getClass().equals(Boolean.class)) {
-            boolean bool = (boolean) value;
-            buffer.writeByte(bool ? (byte) 1 : (byte) 0);
-            return true;
-        }
-        if (value.getClass().equals(byte.class) || value.getClass().equals(Byte.class)) {
-            buffer.writeByte((byte) value);
-            return true;
-        }
-        if (value.getClass().equals(byte[].class) || value.getClass().equals(Byte[].class)) {
-            buffer.writeByteArray((byte[]) value);
-            return true;
-        }
-        if (value.getClass().equals(short.class) || value.getClass().equals(Short.class)) {
-            buffer.writeShort((short) value);
-            return true;
-        }
-        if (value.getClass().equals(int.class) || value.getClass().equals(Integer.class)) {
-            buffer.writeInt((int) value);
-            return true;
-        }
-        if (value.getClass().equals(long.class) || value.getClass().equals(Long.class)) {
-            buffer.writeLong((long) value);
-            return true;
-        }
-        if (value.getClass().equals(float.class) || value.getClass().equals(Float.class)) {
-            buffer.writeFloat((float) value);
-            return true;
-        }
-        if (value.getClass().equals(double.class) || value.getClass().equals(Double.class)) {
-            buffer.writeDouble((double) value);
-            return true;
-        }
-        if (value.getClass().equals(String.class)) {
-            buffer.writeString((String) value);
-            return true;
-        }
-
-        // arrays should always be stored as xml
-        if (value.getClass().isArray()) {
-            buffer.writeString(convertObjectToString(value));
-            return true;
-        }
-
-        // collections stored as xml
-        if (Collection.class.isAssignableFrom(value.getClass())) {
-            buffer.writeString(convertObjectToString(value));
-            return true;
-        }
-
-        // serializables stored as xml
-        if (Serializable.class.isAssignableFrom(value.getClass())) {
-            buffer.writeString(convertObjectToString(value));
-            return true;
-        }
-
-        return false;
-    }
-
-    private static String convertObjectToString(final Object object) {
-        final StringBuilder stringBuilder = new StringBuilder();
-        if (object.getClass().isArray()) {
-            stringBuilder.append(PREFIX_ARRAY);
-            stringBuilder.append(XmlUtils.objectToXml(object));
-        } else if (Collection.class.isAssignableFrom(object.getClass())) {
-            stringBuilder.append(PREFIX_COLLECTION);
-            stringBuilder.append(XmlUtils.objectToXml(object));
-        } else if (Serializable.class.isAssignableFrom(object.getClass())) {
-            stringBuilder.append(PREFIX_OBJECT);
-            stringBuilder.append(XmlUtils.serializeObject((Serializable) object));
-        }
-        return stringBuilder.toString();
-    }
-
-    @SuppressWarnings("unused")
-    // USED VIA REFLECTIONS
-    private final void onReceive(PacketBuffer buffer) throws IllegalArgumentException, IllegalAccessException {
-        final Collection<Field> fields = getFields();
-        for (final Field field : fields) {
-            field.setAccessible(true);
-            if (!readObjectFromBuffer(buffer, field)) {
-                throw new IllegalArgumentException("Field '" + field.getName() + "' could not be read (unknown datatype)!");
-            }
-            field.setAccessible(false);
-        }
-    }
-
-    private boolean readObjectFromBuffer(final PacketBuffer buffer, final Field field) throws IllegalArgumentException, IllegalAccessException {
-        final Class<?> clazz = field.getType();
-        if (clazz.equals(boolean.class) || clazz.equals(Boolean.class)) {
-            field.set(this, buffer.readByte() == 1);
-            return true;
-        }
-        if (clazz.equals(byte.class) || clazz.equals(Byte.class)) {
-            field.set(this, buffer.readByte());
-            return true;
-        }
-        if (clazz.equals(byte[].class) || clazz.equals(Byte[].class)) {
-            field.set(this, buffer.readByteArray());
-            return true;
-        }
-        if (clazz.equals(short.class) || clazz.equals(Short.class)) {
-            field.set(this, buffer.readShort());
-            return true;
-        }
-        if (clazz.equals(int.class) || clazz.equals(Integer.class)) {
-            field.set(this, buffer.readInt());
-            return true;
-        }
-        if (clazz.equals(long.class) || clazz.equals(Long.class)) {
-            field.set(this, buffer.readLong());
-            return true;
-        }
-        if (clazz.equals(float.class) || clazz.equals(Float.class)) {
-            field.set(this, buffer.readFloat());
-            return true;
-        }
-        if (clazz.equals(double.class) || clazz.equals(Double.class)) {
-            field.set(this, buffer.readDouble());
-            return true;
-        }
-        if (clazz.equals(String.class)) {
-            String text = buffer.readString();
-            if (text.startsWith(PREFIX_ARRAY)) {
-                text = text.substring(PREFIX_ARRAY.length());
-                field.set(this, (Object[]) XmlUtils.objectFromXml(text));
-                return true;
-            } else if (text.startsWith(PREFIX_COLLECTION)) {
-                text = text.substring(PREFIX_COLLECTION.length());
-                field.set(this, (Collection<?>) XmlUtils.objectFromXml(text));
-                return true;
-            } else if (text.startsWith(PREFIX_OBJECT)) {
-                text = text.substring(PREFIX_OBJECT.length());
-                field.set(this, XmlUtils.deserializeObject(text));
-                return true;
-            }
-            field.set(this, text);
-            return true;
-        }
-        return false;
-    }
-
 }
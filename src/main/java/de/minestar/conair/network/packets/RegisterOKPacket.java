@@ -18,18 +18,65 @@
 
 package de.minestar.conair.network.packets;
 
+import de.minestar.conair.network.FrameFormat;
+
 public class RegisterOKPacket extends NetworkPacket {
 
     private String _clientName;
+    // the frameformat both sides agreed on
+    private int _protocolVersion;
+    // the server understands compressed frames
+    private boolean _supportsCompression;
+    // the packets, which the server decodes itself
+    private int[] _decodedPacketIDs;
+    // the server reassembles fragmented frames
+    private boolean _understandsFragments;
 
     public RegisterOKPacket(String clientName) {
+        this(clientName, FrameFormat.VERSION_1, false, null, false);
+    }
+
+    public RegisterOKPacket(String clientName, int protocolVersion, boolean supportsCompression, int[] decodedPacketIDs, boolean understandsFragments) {
         _clientName = clientName;
+        _protocolVersion = protocolVersion;
+        _supportsCompression = supportsCompression;
+        _decodedPacketIDs = decodedPacketIDs;
+        _understandsFragments = understandsFragments;
     }
 
     public String getClientName() {
         return _clientName;
     }
 
+    /**
+     * @return the {@link FrameFormat}, which the client may use from now on.
+     */
+    public int getProtocolVersion() {
+        // servers without this field only know the first version
+        return Math.max(_protocolVersion, FrameFormat.VERSION_1);
+    }
+
+    /**
+     * @return <code>true</code>, if the client may send compressed frames to the server.
+     */
+    public boolean supportsCompression() {
+        return _supportsCompression;
+    }
+
+    /**
+     * @return the IDs of the packets, which the server decodes itself and the client may therefore write through a {@link de.minestar.conair.network.codec.ClassDescriptorTable ClassDescriptorTable}, or <code>null</code> if the server does not support it.
+     */
+    public int[] getDecodedPacketIDs() {
+        return _decodedPacketIDs;
+    }
+
+    /**
+     * @return <code>true</code>, if the client may send large frames to the server in fragments.
+     */
+    public boolean understandsFragments() {
+        return _understandsFragments;
+    }
+
     @Override
     public boolean isBroadcastPacket() {
         return false;
@@ -18,18 +18,65 @@
 
 package de.minestar.conair.network.packets;
 
+import de.minestar.conair.network.FrameFormat;
+
 public class RegisterRequestPacket extends NetworkPacket {
 
     private String _clientName;
+    // the packets of the client, their position is their compact ID
+    private String[] _packetNames;
+    // the newest frameformat the client understands
+    private int _protocolVersion;
+    // the client understands compressed frames
+    private boolean _supportsCompression;
+    // the client reassembles fragmented frames
+    private boolean _understandsFragments;
 
     public RegisterRequestPacket(String clientName) {
+        this(clientName, null, FrameFormat.VERSION_1, false, false);
+    }
+
+    public RegisterRequestPacket(String clientName, String[] packetNames, int protocolVersion, boolean supportsCompression, boolean understandsFragments) {
         _clientName = clientName;
+        _packetNames = packetNames;
+        _protocolVersion = protocolVersion;
+        _supportsCompression = supportsCompression;
+        _understandsFragments = understandsFragments;
     }
 
     public String getClientName() {
         return _clientName;
     }
 
+    /**
+     * @return the classnames for the {@link de.minestar.conair.network.PacketIDMap}, or <code>null</code> if the client only uses full packet IDs.
+     */
+    public String[] getPacketNames() {
+        return _packetNames;
+    }
+
+    /**
+     * @return the newest {@link FrameFormat} the client understands.
+     */
+    public int getProtocolVersion() {
+        // clients without this field only know the first version
+        return Math.max(_protocolVersion, FrameFormat.VERSION_1);
+    }
+
+    /**
+     * @return <code>true</code>, if the server may send compressed frames to the client.
+     */
+    public boolean supportsCompression() {
+        return _supportsCompression;
+    }
+
+    /**
+     * @return <code>true</code>, if the server may send large frames to the client in fragments.
+     */
+    public boolean understandsFragments() {
+        return _understandsFragments;
+    }
+
     @Override
     public boolean isBroadcastPacket() {
         return false;
@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.minestar.conair.network.EncodedFrame;
+import de.minestar.conair.network.FrameCompression;
+import de.minestar.conair.network.FrameDecoder;
+import de.minestar.conair.network.FrameFormat;
+import de.minestar.conair.network.FrameWriter;
+import de.minestar.conair.network.PacketIDMap;
+import de.minestar.conair.network.PacketRegistry;
+import de.minestar.conair.network.codec.CodecContext;
+import de.minestar.conair.network.packets.FileChunkPacket;
+import de.minestar.conair.network.packets.NetworkPacket;
+import de.minestar.conair.network.packets.RegisterDenyPacket;
+import de.minestar.conair.network.packets.RegisterOKPacket;
+import de.minestar.conair.network.packets.RegisterRequestPacket;
+import de.minestar.conair.network.server.api.PluginManager;
+import de.minestar.conair.network.server.api.events.BroadcastPacketReceivedEvent;
+import de.minestar.conair.network.server.api.events.ServerSidePacketReceivedEvent;
+
+/**
+ * Everything a server does independently of how the connections are served: accepting whitelisted clients, handling and broadcasting packets and calling the plugins. The subclasses only move the bytes between the channels and the {@link ConnectedServerClient}s.
+ */
+public abstract class AbstractTCPServer implements Runnable {
+
+    public static final int DEFAULT_EVENT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    protected final ServerSocketChannel _serverSocket;
+    protected volatile boolean _isRunning;
+    private List<String> _addressWhitelist;
+    private ServerPacketHandler _packetHandler;
+    private ServerSidePacketHandler _serverSidePacketHandler;
+    private PluginManager _pluginManager;
+    protected final PacketRegistry _packetRegistry;
+    // used for packets, which are encoded for all clients
+    private final CodecContext _codecContext;
+
+    // async plugin listeners are called by this executor, so they never block the network threads
+    protected final ExecutorService _eventExecutor;
+
+    // all connected clients, replaced on every (dis-)connect so the broadcast can iterate it without locking
+    private volatile ConnectedServerClient[] _clients = new ConnectedServerClient[0];
+    protected volatile int _writeBudget = FrameWriter.DEFAULT_WRITE_BUDGET;
+    protected volatile int _compressionThreshold = FrameCompression.DISABLED;
+    protected volatile int _maxMessageSize = FrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+
+    protected AbstractTCPServer(int port, List<String> addressWhitelist, int eventThreads) throws IOException {
+        this(port, addressWhitelist, eventThreads, PacketRegistry.getDefault());
+    }
+
+    protected AbstractTCPServer(int port, List<String> addressWhitelist, int eventThreads, PacketRegistry packetRegistry) throws IOException {
+        if (eventThreads < 1) {
+            throw new IllegalArgumentException("At least one event thread is required!");
+        }
+        System.out.println("--------------------");
+        System.out.println("Starting server on port " + port + "...");
+
+        _packetHandler = new ServerPacketHandler();
+        _packetRegistry = packetRegistry;
+        _codecContext = new CodecContext(packetRegistry);
+
+        _eventExecutor = Executors.newFixedThreadPool(eventThreads, new ThreadFactory() {
+            private final AtomicInteger _threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ConAir-Event-" + _threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // Listening on the port
+        _serverSocket = ServerSocketChannel.open();
+        _serverSocket.socket().bind(new InetSocketAddress(port));
+
+        _isRunning = true;
+
+        if (addressWhitelist == null) {
+            addressWhitelist = new ArrayList<String>();
+        }
+        if (addressWhitelist.isEmpty()) {
+            addressWhitelist.add("127.0.0.1");
+        }
+        _addressWhitelist = addressWhitelist;
+
+        // register standardpackets
+        registerStandardPacketTypes();
+
+        // create ServerSidePacketHandler
+        _serverSidePacketHandler = new ServerSidePacketHandler();
+    }
+
+    private final void registerStandardPacketTypes() {
+        registerSinglePacket(RegisterRequestPacket.class);
+        registerSinglePacket(RegisterOKPacket.class);
+        registerSinglePacket(RegisterDenyPacket.class);
+        registerSinglePacket(FileChunkPacket.class);
+    }
+
+    private final <P extends NetworkPacket> void registerSinglePacket(Class<P> packetClazz) {
+        if (!_packetRegistry.isRegistered(packetClazz)) {
+            _packetRegistry.registerPacket(packetClazz);
+        }
+    }
+
+    /*
+     * STOPPING
+     */
+    public void stop() {
+        if (_isRunning) {
+            _isRunning = false;
+            System.out.println("--------------------");
+            System.out.println("Stopping server...");
+            stopTransport();
+            _eventExecutor.shutdown();
+            try {
+                _serverSocket.socket().close();
+                _serverSocket.socket().getChannel().close();
+                _serverSocket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            System.out.println("Server stopped!");
+            System.out.println("--------------------");
+        }
+    }
+
+    /**
+     * Stop all threads of the transport and close the connections.
+     */
+    protected abstract void stopTransport();
+
+    /*
+     * ACCEPTING
+     */
+
+    /**
+     * Check if a new client is allowed to connect. A client which is not whitelisted is disconnected.
+     * 
+     * @param clientSocket
+     *            the accepted channel
+     * 
+     * @return the name of the client, or <code>null</code> if it is not allowed to connect.
+     * @throws IOException
+     */
+    protected final String acceptClient(SocketChannel clientSocket) throws IOException {
+        // Is client allowed to connect?
+        String address = clientSocket.getRemoteAddress().toString();
+
+        // Remove the port number
+        int i = address.indexOf(':');
+        if (i != -1)
+            address = address.substring(0, i);
+
+        if (address.startsWith("/")) {
+            address = address.substring(1, address.length());
+        }
+
+        // Client is not allowed to connect - refuse connection
+        if (!_addressWhitelist.contains(address)) {
+            clientSocket.close();
+            System.out.println("Client is not whitelisted: " + address);
+            return null;
+        }
+
+        return address + ":" + clientSocket.socket().getPort();
+    }
+
+    /*
+     * CONNECTING
+     */
+
+    // Called by the transport, after the client was registered
+    void onClientConnected(ConnectedServerClient client) {
+        client.setMaxMessageSize(_maxMessageSize);
+        addClient(client);
+        System.out.println("Client connected from: " + client.getName());
+    }
+
+    // Called by the transport, after the channel was closed
+    void onClientDisconnected(ConnectedServerClient client) {
+        removeClient(client);
+        client.close();
+        _serverSidePacketHandler.unregisterClient(client);
+        System.out.println("Client '" + client.getName() + "' disconnected!");
+    }
+
+    private synchronized void addClient(ConnectedServerClient client) {
+        ConnectedServerClient[] clients = Arrays.copyOf(_clients, _clients.length + 1);
+        clients[clients.length - 1] = client;
+        _clients = clients;
+    }
+
+    private synchronized void removeClient(ConnectedServerClient client) {
+        ConnectedServerClient[] clients = _clients;
+        for (int i = 0; i < clients.length; i++) {
+            if (clients[i] == client) {
+                ConnectedServerClient[] newClients = new ConnectedServerClient[clients.length - 1];
+                System.arraycopy(clients, 0, newClients, 0, i);
+                System.arraycopy(clients, i + 1, newClients, i, clients.length - i - 1);
+                _clients = newClients;
+                return;
+            }
+        }
+    }
+
+    /*
+     * HANDLING
+     */
+
+    // Handle a single frame, called by the reading thread of the client
+    void handleFrame(final ConnectedServerClient client, final int packetID, ByteBuffer frame) {
+        final SerialExecutor eventQueue = client.getEventQueue();
+
+        // We have a broadcast server - broadcast all packages
+        if (ServerPacketHandler.isBroadcastPacket(_packetRegistry, packetID)) {
+            // relay the received bytes, the packet is only decoded if a plugin asks for it
+            final EncodedFrame encodedFrame = EncodedFrame.copyOf(packetID, frame);
+
+            if (eventQueue.isIdle() && !_pluginManager.isAsync(BroadcastPacketReceivedEvent.class, packetID)) {
+                handleBroadcast(client, packetID, encodedFrame);
+            } else {
+                // the broadcast continues after the async listeners, later packets of the client wait for it
+                eventQueue.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleBroadcast(client, packetID, encodedFrame);
+                    }
+                });
+            }
+        } else {
+            // extract the packet
+            final NetworkPacket packet = _packetHandler.extractPacket(packetID, frame, client.getInboundCodecContext());
+
+            // if we have found a packet, we handle it...
+            if (packet == null) {
+                return;
+            }
+            // negotiate the frameformat, the next frame may already use it
+            if (packet instanceof RegisterRequestPacket) {
+                negotiateVersion(client, (RegisterRequestPacket) packet);
+            }
+            if (eventQueue.isIdle() && !_pluginManager.isAsync(ServerSidePacketReceivedEvent.class, packetID)) {
+                handlePacket(client, packet);
+            } else {
+                eventQueue.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handlePacket(client, packet);
+                    }
+                });
+            }
+        }
+    }
+
+    // Both sides use the newest version they understand
+    private void negotiateVersion(ConnectedServerClient client, RegisterRequestPacket packet) {
+        if (packet.getProtocolVersion() >= FrameFormat.VERSION_2 && packet.getPacketNames() != null) {
+            client.useVersion2(new PacketIDMap(packet.getPacketNames()), packet.supportsCompression(), packet.understandsFragments());
+        }
+    }
+
+    // Call the event for a broadcast packet and deliver it, if it is not cancelled
+    private void handleBroadcast(ConnectedServerClient client, int packetID, EncodedFrame encodedFrame) {
+        // no event is created for packets, which no plugin listens to
+        if (_pluginManager.hasListeners(BroadcastPacketReceivedEvent.class, packetID)) {
+            /*
+             * CALL EVENT - BroadcastPacketReceivedEvent
+             */
+            BroadcastPacketReceivedEvent event = new BroadcastPacketReceivedEvent(packetID, encodedFrame, client.getCodecContext());
+            _pluginManager.callEvent(event);
+
+            // ignore the packet, if it is cancelled
+            if (event.isCancelled()) {
+                encodedFrame.release();
+                return;
+            }
+
+            // the packet may have been changed by a plugin, so it is encoded again
+            if (event.isDecoded()) {
+                encodedFrame.release();
+                if (event.getPacket() != null) {
+                    broadcastPacket(client, event.getPacket());
+                }
+                return;
+            }
+        }
+        broadcastFrame(client, encodedFrame);
+        encodedFrame.release();
+    }
+
+    // Handle a single packet, which is not broadcasted
+    private <P extends NetworkPacket> void handlePacket(ConnectedServerClient client, P packet) {
+        boolean result = _serverSidePacketHandler.handlePacket(client, packet);
+        if (!result && _pluginManager.hasListeners(ServerSidePacketReceivedEvent.class, packet.getPacketID())) {
+            // call PacketReceivedEvent on ServerSide
+            _pluginManager.callEvent(new ServerSidePacketReceivedEvent(client, packet));
+        }
+    }
+
+    // Deliver the packet the all other clients
+    private <P extends NetworkPacket> void broadcastPacket(ConnectedServerClient src, P packet) {
+        // encode the packet only once for all clients
+        EncodedFrame frame = EncodedFrame.encode(packet, _codecContext);
+        if (frame == null) {
+            return;
+        }
+        broadcastFrame(src, frame);
+
+        // release our own reference
+        frame.release();
+    }
+
+    // Deliver the frame the all other clients
+    private void broadcastFrame(ConnectedServerClient src, EncodedFrame frame) {
+        ConnectedServerClient[] clients = _clients;
+        for (ConnectedServerClient client : clients) {
+            // ignore if the client is the sender
+            if (client == src)
+                continue;
+
+            // every client holds its own reference of the frame
+            client.sendFrame(frame);
+        }
+    }
+
+    /**
+     * Set the maximum number of bytes, which are handed to a single write of a client.
+     * 
+     * @param writeBudget
+     *            the budget in bytes
+     */
+    public void setWriteBudget(int writeBudget) {
+        if (writeBudget <= 0) {
+            throw new IllegalArgumentException("The writebudget must be positive!");
+        }
+        _writeBudget = writeBudget;
+        for (ConnectedServerClient client : _clients) {
+            client.setWriteBudget(writeBudget);
+        }
+    }
+
+    /**
+     * Compress all frames to the clients, which are at least as large as the threshold. Only clients, which negotiated compression, get compressed frames.
+     * 
+     * @param threshold
+     *            the size of the packetdata in bytes, or {@link FrameCompression#DISABLED}
+     */
+    public void setCompressionThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("The threshold must not be negative!");
+        }
+        _compressionThreshold = threshold;
+        for (ConnectedServerClient client : _clients) {
+            client.getFrameCompression().setThreshold(threshold);
+        }
+    }
+
+    /**
+     * Set the maximum size of a message, which a client sends in fragments. Larger messages close the connection.
+     * 
+     * @param maxMessageSize
+     *            the size in bytes
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("The messagesize must be positive!");
+        }
+        _maxMessageSize = maxMessageSize;
+        for (ConnectedServerClient client : _clients) {
+            client.setMaxMessageSize(maxMessageSize);
+        }
+    }
+
+    public int getPort() {
+        return _serverSocket.socket().getLocalPort();
+    }
+
+    public PacketRegistry getPacketRegistry() {
+        return _packetRegistry;
+    }
+
+    public void setPluginManager(PluginManager pluginManager) {
+        _pluginManager = pluginManager;
+        _serverSidePacketHandler.setPluginManager(pluginManager);
+    }
+}
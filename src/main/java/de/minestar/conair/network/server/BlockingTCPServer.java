@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.minestar.conair.network.BufferPool;
+import de.minestar.conair.network.PacketRegistry;
+
+/**
+ * Server with blocking channels and dedicated threads for every connection. A connection is served by a reading thread, which decodes and handles the frames, and a writing thread, which sleeps until frames are queued for the client. Both threads use plain blocking calls, there is no selector involved.
+ * <p>
+ * Every connection costs two threads, so the {@link TCPServer} scales better for many clients.
+ */
+public final class BlockingTCPServer extends AbstractTCPServer {
+
+    private final Set<BlockingConnection> _connections = ConcurrentHashMap.newKeySet();
+
+    public BlockingTCPServer(int port, List<String> addressWhitelist) throws IOException {
+        this(port, addressWhitelist, DEFAULT_EVENT_THREADS);
+    }
+
+    public BlockingTCPServer(int port, List<String> addressWhitelist, int eventThreads) throws IOException {
+        this(port, addressWhitelist, eventThreads, PacketRegistry.getDefault());
+    }
+
+    public BlockingTCPServer(int port, List<String> addressWhitelist, int eventThreads, PacketRegistry packetRegistry) throws IOException {
+        super(port, addressWhitelist, eventThreads, packetRegistry);
+        System.out.println("Using blocking connections");
+    }
+
+    @Override
+    public void run() {
+        System.out.println("Server started!");
+        while (_isRunning) {
+            try {
+                // accept new client
+                SocketChannel clientSocket = _serverSocket.accept();
+                String address = acceptClient(clientSocket);
+                if (address != null) {
+                    new BlockingConnection(address, clientSocket).start();
+                }
+            } catch (IOException e) {
+                // the socket is closed, when the server is stopped
+                if (_isRunning) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /*
+     * STOPPING
+     */
+    @Override
+    protected void stopTransport() {
+        for (BlockingConnection connection : _connections) {
+            connection.close();
+        }
+        // the clients are released by their writing threads
+        for (BlockingConnection connection : _connections) {
+            try {
+                connection._writeThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private final class BlockingConnection implements WriteScheduler {
+
+        private final ConnectedServerClient _client;
+        private final SocketChannel _channel;
+        private final Semaphore _writeSignal = new Semaphore(0);
+        private final AtomicBoolean _closed = new AtomicBoolean(false);
+        private final Thread _readThread;
+        private final Thread _writeThread;
+
+        private BlockingConnection(String address, SocketChannel channel) {
+            _channel = channel;
+            _client = new ConnectedServerClient(address, channel, this, _eventExecutor, _writeBudget, _compressionThreshold, _packetRegistry);
+            _readThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    read();
+                }
+            }, "ConAir-Read-" + address);
+            _writeThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            }, "ConAir-Write-" + address);
+        }
+
+        private void start() {
+            _connections.add(this);
+            onClientConnected(_client);
+            _readThread.start();
+            _writeThread.start();
+        }
+
+        private void read() {
+            try {
+                // When readfrom fails the client has disconnected
+                while (_client.readFrom(_channel)) {
+                    // handle every complete frame of this read
+                    ByteBuffer frame;
+                    while ((frame = _client.nextFrame()) != null) {
+                        handleFrame(_client, _client.getFramePacketID(), frame);
+                    }
+                }
+            } catch (IOException e) {
+                // the stream is corrupted, so we drop the client
+                System.out.println("Client '" + _client.getName() + "' sent an invalid frame: " + e.getMessage());
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                close();
+                // the thread ends, its buffers go back to the pool
+                BufferPool.releaseThreadCaches();
+            }
+        }
+
+        @Override
+        public void scheduleWrite(ConnectedServerClient client) {
+            _writeSignal.release();
+        }
+
+        // The writer is the only thread, which touches the FrameWriter, so it also releases the client after its loop
+        private void write() {
+            try {
+                while (!_closed.get()) {
+                    // wait until frames are queued
+                    _writeSignal.acquire();
+                    do {
+                        while (_client.hasDataToSend()) {
+                            // If write fails the client has disconnected
+                            if (!_client.write(_channel)) {
+                                close();
+                                return;
+                            }
+                        }
+                    } while (_client.finishWrite());
+                }
+            } catch (InterruptedException e) {
+                // the connection was closed
+            } catch (IOException e) {
+                close();
+            } finally {
+                // an unexpected error closes the channel as well
+                close();
+                onClientDisconnected(_client);
+                _connections.remove(this);
+                BufferPool.releaseThreadCaches();
+            }
+        }
+
+        // Called by any thread, the writing thread finishes the disconnect
+        private void close() {
+            if (!_closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                _channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (Thread.currentThread() != _writeThread) {
+                _writeThread.interrupt();
+            }
+        }
+    }
+}
@@ -20,49 +20,161 @@ package de.minestar.conair.network.server;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
 
-import de.minestar.conair.network.PacketBuffer;
-import de.minestar.conair.network.PacketQueue;
+import de.minestar.conair.network.EncodedFrame;
+import de.minestar.conair.network.FrameCompression;
+import de.minestar.conair.network.FrameDecoder;
+import de.minestar.conair.network.FrameFormat;
+import de.minestar.conair.network.FrameWriter;
+import de.minestar.conair.network.PacketIDMap;
+import de.minestar.conair.network.PacketRegistry;
+import de.minestar.conair.network.codec.ClassDescriptorTable;
+import de.minestar.conair.network.codec.CodecContext;
 import de.minestar.conair.network.packets.NetworkPacket;
 
 public final class ConnectedServerClient {
 
-    private final PacketBuffer _inBuffer = new PacketBuffer(ByteBuffer.allocateDirect(128 * 1024));
-    private final PacketBuffer _outBuffer = new PacketBuffer(ByteBuffer.allocateDirect(128 * 1024));
+    private final FrameDecoder _frameDecoder = new FrameDecoder();
 
     private String _name;
-    private boolean _dataToSend = false;
-    private final PacketQueue _packetQueue;
+    private final SocketChannel _channel;
+    private final WriteScheduler _writeScheduler;
+    private final FrameWriter _frameWriter;
+    private final CodecContext _codecContext;
+    private final FrameCompression _compression;
+    // the descriptors of the client, only used by the reading thread
+    private CodecContext _inboundContext;
+    // the descriptors for the client, the packets of the client are encoded in order
+    private final Object _outboundLock = new Object();
+    private volatile CodecContext _outboundContext;
+    private volatile PacketIDMap _packetIDMap;
+    // all events of this client are handled in order
+    private final SerialExecutor _eventQueue;
 
-    public ConnectedServerClient(String name) {
+    private SelectionKey _selectionKey;
+    private volatile int _protocolVersion = FrameFormat.VERSION_1;
+    // true, while the client is waiting for OP_WRITE or is writing
+    private final AtomicBoolean _writeScheduled = new AtomicBoolean(false);
+    private volatile boolean _closed;
+
+    ConnectedServerClient(String name, SocketChannel channel, WriteScheduler writeScheduler, Executor eventExecutor, int writeBudget, int compressionThreshold, PacketRegistry packetRegistry) {
         _name = name;
-        _packetQueue = new PacketQueue();
+        _channel = channel;
+        _writeScheduler = writeScheduler;
+        _frameWriter = new FrameWriter(writeBudget);
+        _compression = new FrameCompression(compressionThreshold, Deflater.BEST_SPEED);
+        _codecContext = new CodecContext(packetRegistry);
+        _inboundContext = _codecContext;
+        _eventQueue = new SerialExecutor(eventExecutor);
     }
 
+    /**
+     * Queue a packet for this client. This method is threadsafe.
+     * 
+     * @param packet
+     *            the packet
+     */
     public <P extends NetworkPacket> void sendPacket(P packet) {
-        _packetQueue.addUnsafePacket(packet);
-        boolean wasEmpty = _packetQueue.getSize() == 1;
-        // the queue was empty, so we send the first packet
-        if (wasEmpty) {
-            if (_packetQueue.updateQueue()) {
-                _packetQueue.packPacket(_outBuffer);
-                _dataToSend = true;
+        final CodecContext outboundContext = _outboundContext;
+        if (outboundContext != null && isDecodedByClient(packet)) {
+            // the client must receive the descriptors in the order in which they were assigned
+            synchronized (_outboundLock) {
+                EncodedFrame frame = EncodedFrame.encode(packet, outboundContext);
+                if (frame != null) {
+                    queue(frame);
+                }
             }
+            return;
+        }
+        EncodedFrame frame = EncodedFrame.encode(packet, _codecContext);
+        if (frame != null) {
+            // the queue takes over the reference of the new frame
+            queue(frame);
+        }
+    }
+
+    // the client decodes every packet, which it has registered itself
+    private boolean isDecodedByClient(NetworkPacket packet) {
+        final Integer packetID = _codecContext.getPacketRegistry().getID(packet.getClass());
+        return packetID != null && _packetIDMap.getWireID(packetID) != PacketIDMap.UNMAPPED;
+    }
+
+    /**
+     * Queue an already encoded frame, which may be shared with other clients.
+     * 
+     * @param frame
+     *            the frame
+     */
+    void sendFrame(EncodedFrame frame) {
+        queue(frame.retain());
+    }
+
+    private void queue(EncodedFrame frame) {
+        if (_closed) {
+            frame.release();
+            return;
+        }
+        _frameWriter.add(frame);
+        // the client may have been closed in the meantime, so nobody would release the frame
+        if (_closed) {
+            _frameWriter.clearQueue();
+            return;
+        }
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (_writeScheduled.compareAndSet(false, true)) {
+            _writeScheduler.scheduleWrite(this);
         }
     }
+
+    /**
+     * Called by the transport after the pending data is written. Returns <code>true</code>, if new data was queued in the meantime and the transport must keep writing.
+     */
+    boolean finishWrite() {
+        _writeScheduled.set(false);
+        return _frameWriter.hasDataToSend() && _writeScheduled.compareAndSet(false, true);
+    }
+
+    SerialExecutor getEventQueue() {
+        return _eventQueue;
+    }
+
+    SocketChannel getChannel() {
+        return _channel;
+    }
+
+    SelectionKey getSelectionKey() {
+        return _selectionKey;
+    }
+
+    void setSelectionKey(SelectionKey selectionKey) {
+        _selectionKey = selectionKey;
+    }
+
     public String getName() {
         return _name;
     }
 
     boolean hasDataToSend() {
-        return _dataToSend;
+        return _frameWriter.hasDataToSend();
+    }
+
+    void setWriteBudget(int writeBudget) {
+        _frameWriter.setWriteBudget(writeBudget);
     }
 
     boolean readFrom(SocketChannel channel) throws Exception {
         int b = 0;
         try {
-            b = channel.read(_inBuffer.getBuffer());
+            b = _frameDecoder.readFrom(channel);
         } catch (IOException e) {
             return false;
         }
@@ -70,26 +182,102 @@ public final class ConnectedServerClient {
     }
 
     boolean write(SocketChannel channel) throws IOException {
-        int b = 0;
         try {
-            b = channel.write(_outBuffer.getBuffer());
+            // write as many pending frames as possible at once
+            _frameWriter.write(channel);
         } catch (IOException e) {
             return false;
         }
-        if (b == 0) {
-            _dataToSend = false;
-            _outBuffer.clear();
+        return true;
+    }
+
+    /**
+     * Release all frames, which were not written yet. Frames, which are sent afterwards, are released immediately.
+     */
+    void close() {
+        _closed = true;
+        _frameWriter.clear();
+        _compression.close();
+    }
+
+    CodecContext getCodecContext() {
+        return _codecContext;
+    }
+
+    ByteBuffer nextFrame() throws IOException {
+        return _frameDecoder.nextFrame();
+    }
+
+    /**
+     * @return the context to decode the frames of the client. It is only used by the reading thread, every frame must be decoded before the next one is read.
+     */
+    CodecContext getInboundCodecContext() {
+        return _inboundContext;
+    }
+
+    int getFramePacketID() {
+        return _frameDecoder.getPacketID();
+    }
+
+    /**
+     * Switch to {@link FrameFormat#VERSION_2 version 2} with the compact packet IDs of the client. Must be called by the reading thread, before the next frame is read.
+     *
+     * @param packetIDMap
+     *            the compact packet IDs
+     * @param compression
+     *            <code>true</code>, if the client understands compressed frames
+     * @param fragments
+     *            <code>true</code>, if the client reassembles fragmented frames
+     */
+    void useVersion2(PacketIDMap packetIDMap, boolean compression, boolean fragments) {
+        _frameDecoder.setPacketIDMap(packetIDMap);
+        _frameDecoder.setCompression(_compression);
+        _frameWriter.setPacketIDMap(packetIDMap);
+        if (compression) {
+            _frameWriter.setCompression(_compression);
+        }
+        if (fragments) {
+            _frameWriter.setFragmentSize(FrameWriter.DEFAULT_FRAGMENT_SIZE);
+        }
+        _inboundContext = _codecContext.withClassDescriptorTable(new ClassDescriptorTable());
+        _packetIDMap = packetIDMap;
+        _outboundContext = _codecContext.withClassDescriptorTable(new ClassDescriptorTable());
+        _protocolVersion = FrameFormat.VERSION_2;
+    }
 
-            if (_packetQueue.updateQueue()) {
-                _packetQueue.packPacket(_outBuffer);
-                _dataToSend = true;
+    /**
+     * @return the IDs of all packets, which the server decodes itself and the client may therefore write through a {@link ClassDescriptorTable}, or <code>null</code> if the client does not use version 2. Broadcast packets are relayed without decoding them, so they never use the table.
+     */
+    int[] getDecodedPacketIDs() {
+        if (_protocolVersion < FrameFormat.VERSION_2) {
+            return null;
+        }
+        final PacketRegistry packetRegistry = _codecContext.getPacketRegistry();
+        final String[] packetNames = packetRegistry.getPacketNames();
+        final int[] packetIDs = new int[packetNames.length];
+        int count = 0;
+        for (int i = 0; i < packetNames.length; i++) {
+            final int packetID = PacketRegistry.getUniqueID(packetNames[i]);
+            if (!ServerPacketHandler.isBroadcastPacket(packetRegistry, packetID)) {
+                packetIDs[count++] = packetID;
             }
         }
-        return b != -1;
+        return Arrays.copyOf(packetIDs, count);
+    }
+
+    /**
+     * @return the compression of this connection, with its metrics.
+     */
+    public FrameCompression getFrameCompression() {
+        return _compression;
+    }
+
+    void setMaxMessageSize(int maxMessageSize) {
+        _frameDecoder.setMaxMessageSize(maxMessageSize);
     }
 
-    ByteBuffer getClientBuffer() {
-        return _inBuffer.getBuffer();
+    int getProtocolVersion() {
+        return _protocolVersion;
     }
 
 }
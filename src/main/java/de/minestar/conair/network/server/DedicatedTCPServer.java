@@ -21,6 +21,7 @@ package de.minestar.conair.network.server;
 import java.io.IOException;
 import java.util.List;
 
+import de.minestar.conair.network.PacketRegistry;
 import de.minestar.conair.network.server.api.EventListener;
 import de.minestar.conair.network.server.api.PluginManager;
 import de.minestar.conair.network.server.api.ServerPlugin;
@@ -30,7 +31,7 @@ public class DedicatedTCPServer {
     private static final String DEFAULT_PLUGINFOLDER = "plugins" + System.getProperty("file.separator");
 
     private int _port;
-    private TCPServer _server;
+    private AbstractTCPServer _server;
     private Thread _serverThread;
     private PluginManager _pluginManager;
 
@@ -47,9 +48,30 @@ public class DedicatedTCPServer {
     }
 
     public DedicatedTCPServer(int port, List<String> whiteList, String pluginFolder) throws IOException {
+        this(port, whiteList, pluginFolder, TCPServer.DEFAULT_IO_THREADS);
+    }
+
+    public DedicatedTCPServer(int port, List<String> whiteList, String pluginFolder, int ioThreads) throws IOException {
+        this(port, whiteList, pluginFolder, ioThreads, TCPServer.DEFAULT_EVENT_THREADS);
+    }
+
+    public DedicatedTCPServer(int port, List<String> whiteList, String pluginFolder, int ioThreads, int eventThreads) throws IOException {
+        this(new TCPServer(port, whiteList, ioThreads, eventThreads), pluginFolder);
+    }
+
+    /**
+     * Run a server with any transport, for example a {@link BlockingTCPServer}.
+     * 
+     * @param server
+     *            the server, which is not started yet
+     * @param pluginFolder
+     *            the folder of the plugins
+     * @throws IOException
+     */
+    public DedicatedTCPServer(AbstractTCPServer server, String pluginFolder) throws IOException {
         try {
-            _port = port;
-            _server = new TCPServer(port, whiteList);
+            _port = server.getPort();
+            _server = server;
 
             if (!pluginFolder.endsWith(System.getProperty("file.separator"))) {
                 pluginFolder += System.getProperty("file.separator");
@@ -90,7 +112,23 @@ public class DedicatedTCPServer {
         _pluginManager.registerEvents(eventListener, serverPlugin);
     }
 
+    public void setWriteBudget(int writeBudget) {
+        _server.setWriteBudget(writeBudget);
+    }
+
+    public void setCompressionThreshold(int threshold) {
+        _server.setCompressionThreshold(threshold);
+    }
+
+    public void setMaxMessageSize(int maxMessageSize) {
+        _server.setMaxMessageSize(maxMessageSize);
+    }
+
     public int getPort() {
         return _port;
     }
+
+    public PacketRegistry getPacketRegistry() {
+        return _server.getPacketRegistry();
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the tasks of a single client one after another on a shared executor. Tasks of different clients run in parallel, tasks of the same client never overtake each other.
+ */
+final class SerialExecutor implements Executor, Runnable {
+
+    private final Executor _executor;
+    private final ConcurrentLinkedQueue<Runnable> _tasks;
+    // number of tasks, which are queued or running
+    private final AtomicInteger _pending;
+
+    SerialExecutor(Executor executor) {
+        _executor = executor;
+        _tasks = new ConcurrentLinkedQueue<Runnable>();
+        _pending = new AtomicInteger(0);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        _tasks.add(task);
+        // start a new worker, if there was no task left
+        if (_pending.getAndIncrement() == 0) {
+            _executor.execute(this);
+        }
+    }
+
+    /**
+     * @return <code>true</code>, if all tasks were completed.
+     */
+    boolean isIdle() {
+        return _pending.get() == 0;
+    }
+
+    @Override
+    public void run() {
+        do {
+            try {
+                _tasks.poll().run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        } while (_pending.decrementAndGet() > 0);
+    }
+}
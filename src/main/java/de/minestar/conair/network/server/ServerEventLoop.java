@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single I/O thread of the {@link TCPServer}. Every event loop owns its own selector and handles reading, decoding and writing for the clients assigned to it.
+ * <p>
+ * Other threads never touch the selector directly. They hand over new clients and pending writes through threadsafe queues and wake up the selector, the loop processes the queues before its next select.
+ */
+final class ServerEventLoop implements Runnable, WriteScheduler {
+
+    private final TCPServer _server;
+    private final Selector _selector;
+    private final String _name;
+    private volatile boolean _isRunning;
+    private volatile Thread _thread;
+
+    // clients handed over by the acceptor
+    private final ConcurrentLinkedQueue<ConnectedServerClient> _registerQueue = new ConcurrentLinkedQueue<ConnectedServerClient>();
+    // clients with new data to write, the loop adds OP_WRITE for them
+    private final ConcurrentLinkedQueue<ConnectedServerClient> _writeQueue = new ConcurrentLinkedQueue<ConnectedServerClient>();
+    private final AtomicInteger _clientCount = new AtomicInteger(0);
+
+    ServerEventLoop(TCPServer server, String name) throws IOException {
+        _server = server;
+        _selector = Selector.open();
+        _name = name;
+        _isRunning = true;
+    }
+
+    void start() {
+        new Thread(this, _name).start();
+    }
+
+    @Override
+    public void run() {
+        _thread = Thread.currentThread();
+        while (_isRunning) {
+            try {
+                // register new clients and OP_WRITE for all clients with pending data
+                processRegisterQueue();
+                processWriteQueue();
+
+                int rdyChannels = _selector.select();
+                // No channel want something
+                if (rdyChannels == 0) {
+                    continue;
+                }
+
+                // Iterate over all channel which want something
+                Iterator<SelectionKey> it = _selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    // client is sending something
+                    if (key.isReadable()) {
+                        onClientRead(key);
+                    }
+                    // client can receive something
+                    if (key.isValid() && key.isWritable()) {
+                        onClientWrite(key);
+                    }
+                }
+            } catch (Exception e) {
+                // the selector is closed, when the server is stopped
+                if (_isRunning && !(e instanceof CancelledKeyException)) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    void stop() {
+        _isRunning = false;
+        try {
+            for (SelectionKey key : _selector.keys()) {
+                key.channel().close();
+            }
+            _selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * REGISTERING
+     */
+
+    /**
+     * Hand over a new client to this loop. This method is threadsafe.
+     *
+     * @param client
+     *            the client, with its channel in non-blocking mode
+     */
+    void register(ConnectedServerClient client) {
+        _clientCount.incrementAndGet();
+        _registerQueue.add(client);
+        _selector.wakeup();
+    }
+
+    int getClientCount() {
+        return _clientCount.get();
+    }
+
+    private void processRegisterQueue() {
+        ConnectedServerClient client;
+        while ((client = _registerQueue.poll()) != null) {
+            try {
+                SelectionKey key = client.getChannel().register(_selector, SelectionKey.OP_READ, client);
+                client.setSelectionKey(key);
+                // the client is only visible for broadcasts, after it was registered
+                _server.onClientConnected(client);
+            } catch (IOException e) {
+                e.printStackTrace();
+                _clientCount.decrementAndGet();
+                try {
+                    client.getChannel().close();
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /*
+     * READING
+     */
+    private void onClientRead(SelectionKey key) throws Exception {
+        // Read into the clients specific buffer
+        SocketChannel channel = (SocketChannel) key.channel();
+        ConnectedServerClient client = (ConnectedServerClient) key.attachment();
+        // When readfrom fails the client has disconnected
+        if (!client.readFrom(channel)) {
+            disconnectClient(key, client);
+            return;
+        }
+
+        try {
+            // handle every complete frame of this read
+            ByteBuffer frame;
+            while ((frame = client.nextFrame()) != null) {
+                _server.handleFrame(client, client.getFramePacketID(), frame);
+            }
+        } catch (IOException e) {
+            // the stream is corrupted, so we drop the client
+            System.out.println("Client '" + client.getName() + "' sent an invalid frame: " + e.getMessage());
+            disconnectClient(key, client);
+        }
+    }
+
+    private void disconnectClient(SelectionKey key, ConnectedServerClient client) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        _clientCount.decrementAndGet();
+        _server.onClientDisconnected(client);
+    }
+
+    /*
+     * WRITING
+     */
+
+    /**
+     * Wake up the selector, so that it writes the pending data of the client. This method is threadsafe.
+     *
+     * @param client
+     *            the client
+     */
+    @Override
+    public void scheduleWrite(ConnectedServerClient client) {
+        _writeQueue.add(client);
+        // the loop processes the queue before its next select
+        if (Thread.currentThread() != _thread) {
+            _selector.wakeup();
+        }
+    }
+
+    private void processWriteQueue() {
+        ConnectedServerClient client;
+        while ((client = _writeQueue.poll()) != null) {
+            SelectionKey key = client.getSelectionKey();
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void onClientWrite(SelectionKey key) throws Exception {
+        ConnectedServerClient client = (ConnectedServerClient) key.attachment();
+        // If write fails the client has disconnected
+        if (!client.write((SocketChannel) key.channel())) {
+            disconnectClient(key, client);
+            return;
+        }
+
+        // everything is written, so we are not interested in OP_WRITE anymore
+        if (!client.hasDataToSend() && !client.finishWrite()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+}
@@ -18,129 +18,121 @@
 
 package de.minestar.conair.network.server;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 
+import de.minestar.conair.network.EncodedFrame;
+import de.minestar.conair.network.FrameDecoder;
 import de.minestar.conair.network.PacketBuffer;
-import de.minestar.conair.network.PacketType;
+import de.minestar.conair.network.PacketRegistry;
+import de.minestar.conair.network.codec.CodecContext;
+import de.minestar.conair.network.codec.PacketCodec;
+import de.minestar.conair.network.codec.PacketView;
 import de.minestar.conair.network.packets.NetworkPacket;
 import de.minestar.conair.network.server.packets.RAWPacket;
-import de.minestar.conair.network.utils.Unsafe;
 
 public final class ServerPacketHandler {
 
-    protected final PacketBuffer _packetBuffer;
-
     public static final byte PACKET_SEPERATOR = 3;
 
-    public ServerPacketHandler(ByteBuffer buffer) {
-        _packetBuffer = new PacketBuffer(buffer);
-    }
-
     // //////////////////////////////////////////////////////////
     //
-    // Both packets
+    // NetworkPacket
     //
     // //////////////////////////////////////////////////////////
 
-    public boolean isPacketComplete(ByteBuffer buffer) {
-        buffer.flip();
-        int len = 0;
-        if (buffer.hasRemaining()) {
-            len = buffer.getInt();
-        } else {
-            return false;
-        }
-        if (buffer.remaining() <= len - 4) {
-            return false;
-        }
-        return (buffer.get(len) == PACKET_SEPERATOR);
+    /**
+     * Create the packet of a single frame.
+     * 
+     * @param packetID
+     *            the ID of the packet
+     * @param packetData
+     *            the packetdata, as returned by the {@link FrameDecoder}
+     * @param context
+     *            the context of the connection
+     * 
+     * @return the packet, or <code>null</code> if it could not be created.
+     */
+    public final <P extends NetworkPacket> P extractPacket(int packetID, ByteBuffer packetData, CodecContext context) {
+        return createPacket(packetID, new PacketBuffer(packetData), context);
     }
 
-    public <P extends NetworkPacket> boolean packPacket(P packet) {
-        _packetBuffer.clear();
-        boolean result = packet.pack(_packetBuffer);
-        _packetBuffer.getBuffer().flip();
-        return result;
+    /**
+     * Decode the packet of an {@link EncodedFrame}. The trailing {@link NetworkPacket#PACKET_SEPERATOR} is ignored.
+     * 
+     * @param frame
+     *            the frame, starting with the size
+     * @param context
+     *            the context of the connection
+     * 
+     * @return the packet, or <code>null</code> if it could not be created.
+     */
+    public static <P extends NetworkPacket> P decodePacket(ByteBuffer frame, CodecContext context) {
+        final int start = frame.position();
+        final int size = frame.getInt();
+        final int packetID = frame.getInt();
+        frame.limit(start + size);
+        return createPacket(packetID, new PacketBuffer(frame), context);
     }
 
-    // //////////////////////////////////////////////////////////
-    //
-    // NetworkPacket
-    //
-    // //////////////////////////////////////////////////////////
-
-    public final <P extends NetworkPacket> P extractPacket(ByteBuffer src) {
-        src.rewind();
-        int len = src.getInt();
-        int limit = src.limit();
-        src.limit(len);
-        _packetBuffer.clear();
-        _packetBuffer.writeByteBuffer(src);
-        _packetBuffer.getBuffer().flip();
-        src.limit(limit);
-        src.compact();
-
-        // create packet
-        P packet = createPacket(len);
-
-        // reset
-        src.rewind();
-        _packetBuffer.clear();
-
-        // return
-        return packet;
+    /**
+     * Create a view of the packet of an {@link EncodedFrame}, which reads single fields without decoding the packet.
+     * 
+     * @param packetID
+     *            the ID of the packet
+     * @param frame
+     *            the frame
+     * @param context
+     *            the context of the connection
+     * 
+     * @return the view, or <code>null</code> if the packettype is unknown.
+     */
+    public static PacketView<NetworkPacket> createView(int packetID, EncodedFrame frame, CodecContext context) {
+        Class<NetworkPacket> packetClazz = context.getPacketRegistry().getClassByID(packetID);
+        if (packetClazz == null) {
+            return null;
+        }
+        return PacketCodec.forClass(packetClazz).view(packetID, frame.duplicatePacketData(), context);
     }
 
-    @SuppressWarnings({"unchecked", "restriction"})
-    private final <P extends NetworkPacket> P createPacket(int datalength) {
-        try {
-            // reduce the datalength, because we read two integers first.
-            // One integer is 4 bytes long
-            datalength -= 8;
+    /**
+     * Get the packettype of a single frame without decoding it.
+     * 
+     * @param frame
+     *            the frame, starting with the size
+     * 
+     * @return the ID of the packet.
+     */
+    public static int getPacketID(ByteBuffer frame) {
+        return frame.getInt(frame.position() + 4);
+    }
 
-            // get packettype
-            int packetID = _packetBuffer.readInt();
+    /**
+     * Check if a packettype is broadcasted. Unknown packettypes are always broadcasted as {@link RAWPacket}.
+     * 
+     * @param packetRegistry
+     *            the registry of the server
+     * @param packetID
+     *            the ID of the packet
+     * 
+     * @return <code>true</code>, if the packet is broadcasted.
+     */
+    public static boolean isBroadcastPacket(PacketRegistry packetRegistry, int packetID) {
+        Class<NetworkPacket> packetClazz = packetRegistry.getClassByID(packetID);
+        return packetClazz == null || PacketCodec.forClass(packetClazz).isBroadcastPacket();
+    }
 
-            Class<P> packetClazz = PacketType.getClassByID(packetID);
+    @SuppressWarnings("unchecked")
+    private static <P extends NetworkPacket> P createPacket(int packetID, PacketBuffer frameBuffer, CodecContext context) {
+        try {
+            Class<P> packetClazz = context.getPacketRegistry().getClassByID(packetID);
 
-            // packet not found...
+            // packet not found, so we keep a copy of the raw data
             if (packetClazz == null) {
-                // read data...
-                byte[] data = new byte[datalength];
-                _packetBuffer.readBytes(data);
-
-                // ... and create a new PacketBuffer
-                PacketBuffer newBuffer = new PacketBuffer(data.length);
-                newBuffer.writeBytes(data);
-                newBuffer.getBuffer().rewind();
-
-                // finally create the packet and return it
-                return (P) new RAWPacket(packetID, newBuffer.getBuffer());
+                return (P) new RAWPacket(packetID, frameBuffer.getBuffer().slice());
             }
 
-            // get the constructor
-            P instance = (P) Unsafe.get().allocateInstance(packetClazz);
-            Field packetIdField = instance.getClass().getSuperclass().getDeclaredField("_packetID");
-            packetIdField.setAccessible(true);
-            packetIdField.set(instance, packetID);
-            packetIdField.setAccessible(false);
-
-            // read data...
-            byte[] data = new byte[datalength];
-            _packetBuffer.readBytes(data);
-
-            // ... and create a new PacketBuffer
-            PacketBuffer newBuffer = new PacketBuffer(data.length);
-            newBuffer.writeBytes(data);
-            newBuffer.getBuffer().rewind();
-
-            // call the onReceive-Method
-            Method method = instance.getClass().getSuperclass().getDeclaredMethod("onReceive", PacketBuffer.class);
-            method.setAccessible(true);
-            method.invoke(instance, newBuffer);
-            method.setAccessible(false);
+            // decode the packet directly from the frame, the codecs copy every value they read
+            P instance = PacketCodec.forClass(packetClazz).decode(packetID, frameBuffer, context);
 
             // finally create the packet and return it
             return instance;
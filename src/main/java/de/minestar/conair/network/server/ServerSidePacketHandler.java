@@ -18,10 +18,10 @@
 
 package de.minestar.conair.network.server;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import de.minestar.conair.network.PacketType;
+import de.minestar.conair.network.FrameFormat;
 import de.minestar.conair.network.packets.NetworkPacket;
 import de.minestar.conair.network.packets.RegisterDenyPacket;
 import de.minestar.conair.network.packets.RegisterOKPacket;
@@ -30,11 +30,12 @@ import de.minestar.conair.network.server.api.PluginManager;
 
 public class ServerSidePacketHandler extends AbstractServerPacketHandler {
 
-    private final HashMap<String, ConnectedServerClient> _registeredClients;
+    // clients are registered by all event loops of the server
+    private final ConcurrentHashMap<String, ConnectedServerClient> _registeredClients;
     private PluginManager _pluginManager;
 
     public ServerSidePacketHandler() {
-        _registeredClients = new HashMap<String, ConnectedServerClient>();
+        _registeredClients = new ConcurrentHashMap<String, ConnectedServerClient>();
     }
 
     public void setPluginManager(PluginManager pluginManager) {
@@ -47,15 +48,15 @@ public class ServerSidePacketHandler extends AbstractServerPacketHandler {
 
     @Override
     public <P extends NetworkPacket> boolean handlePacket(ConnectedServerClient client, P packet) {
-        if (packet.getPacketID() == PacketType.getID(RegisterRequestPacket.class)) {
+        if (packet instanceof RegisterRequestPacket) {
             handleRegisterRequestPacket(client, (RegisterRequestPacket) packet);
             return true;
         }
         return false;
     }
 
-    private void registerClient(ConnectedServerClient client, String clientName) {
-        _registeredClients.put(clientName, client);
+    private boolean registerClient(ConnectedServerClient client, String clientName) {
+        return _registeredClients.putIfAbsent(clientName, client) == null;
     }
 
     public void unregisterClient(ConnectedServerClient client) {
@@ -71,7 +72,7 @@ public class ServerSidePacketHandler extends AbstractServerPacketHandler {
 
         // remove the client, if we have found one
         if (toRemoveClient != null) {
-            _registeredClients.remove(toRemoveClient);
+            _registeredClients.remove(toRemoveClient, client);
         }
     }
 
@@ -80,9 +81,8 @@ public class ServerSidePacketHandler extends AbstractServerPacketHandler {
     }
 
     private void handleRegisterRequestPacket(ConnectedServerClient client, RegisterRequestPacket packet) {
-        if (!isClientRegistered(packet.getClientName())) {
-            registerClient(client, packet.getClientName());
-            client.sendPacket(new RegisterOKPacket(packet.getClientName()));
+        if (registerClient(client, packet.getClientName())) {
+            client.sendPacket(new RegisterOKPacket(packet.getClientName(), client.getProtocolVersion(), client.getProtocolVersion() >= FrameFormat.VERSION_2, client.getDecodedPacketIDs(), client.getProtocolVersion() >= FrameFormat.VERSION_2));
         } else {
             System.out.println("Client '" + packet.getClientName() + "' is already registered!");
             client.sendPacket(new RegisterDenyPacket(packet.getClientName()));
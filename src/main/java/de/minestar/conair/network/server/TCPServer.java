@@ -19,87 +19,63 @@
 package de.minestar.conair.network.server;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
-import de.minestar.conair.network.PacketType;
-import de.minestar.conair.network.packets.NetworkPacket;
-import de.minestar.conair.network.packets.RegisterDenyPacket;
-import de.minestar.conair.network.packets.RegisterOKPacket;
-import de.minestar.conair.network.packets.RegisterRequestPacket;
-import de.minestar.conair.network.server.api.PluginManager;
-import de.minestar.conair.network.server.api.events.BroadcastPacketReceivedEvent;
-import de.minestar.conair.network.server.api.events.ServerSidePacketReceivedEvent;
+import de.minestar.conair.network.PacketRegistry;
 
-public final class TCPServer implements Runnable {
+/**
+ * Selector based server. The acceptor hands every new client to one of several {@link ServerEventLoop}s, which serve many clients each.
+ */
+public final class TCPServer extends AbstractTCPServer {
+
+    public static final int DEFAULT_IO_THREADS = Runtime.getRuntime().availableProcessors();
 
-    private final ByteBuffer _networkBuffer;
     private Selector _selector;
-    private ServerSocketChannel _serverSocket;
-    private boolean _isRunning;
-    private List<String> _addressWhitelist;
-    private ServerPacketHandler _packetHandler;
-    private ServerSidePacketHandler _serverSidePacketHandler;
-    private PluginManager _pluginManager;
+
+    // the own selector only accepts new clients, every client is handled by one of the event loops
+    private final ServerEventLoop[] _eventLoops;
+    private int _nextEventLoop = 0;
 
     public TCPServer(int port, List<String> addressWhitelist) throws IOException {
-        System.out.println("--------------------");
-        System.out.println("Starting server on port " + port + "...");
+        this(port, addressWhitelist, DEFAULT_IO_THREADS);
+    }
 
-        _networkBuffer = ByteBuffer.allocateDirect(128 * 1024);
+    public TCPServer(int port, List<String> addressWhitelist, int ioThreads) throws IOException {
+        this(port, addressWhitelist, ioThreads, DEFAULT_EVENT_THREADS);
+    }
 
-        _packetHandler = new ServerPacketHandler(_networkBuffer);
+    public TCPServer(int port, List<String> addressWhitelist, int ioThreads, int eventThreads) throws IOException {
+        this(port, addressWhitelist, ioThreads, eventThreads, PacketRegistry.getDefault());
+    }
 
-        _selector = Selector.open();
+    public TCPServer(int port, List<String> addressWhitelist, int ioThreads, int eventThreads, PacketRegistry packetRegistry) throws IOException {
+        super(port, addressWhitelist, eventThreads, packetRegistry);
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("At least one I/O thread is required!");
+        }
+        System.out.println("Using " + ioThreads + " I/O threads");
 
-        // Listening on the port
-        _serverSocket = ServerSocketChannel.open();
-        _serverSocket.socket().bind(new InetSocketAddress(port));
+        _selector = Selector.open();
+        _eventLoops = new ServerEventLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            _eventLoops[i] = new ServerEventLoop(this, "ConAir-IO-" + (i + 1));
+        }
 
         // Non-Blocking for Selector activity
         _serverSocket.configureBlocking(false);
         _serverSocket.register(_selector, SelectionKey.OP_ACCEPT);
-
-        _isRunning = true;
-
-        if (addressWhitelist == null) {
-            addressWhitelist = new ArrayList<String>();
-        }
-        if (addressWhitelist.isEmpty()) {
-            addressWhitelist.add("127.0.0.1");
-        }
-        _addressWhitelist = addressWhitelist;
-
-        // register standardpackets
-        registerStandardPacketTypes();
-
-        // create ServerSidePacketHandler
-        _serverSidePacketHandler = new ServerSidePacketHandler();
-    }
-
-    private final void registerStandardPacketTypes() {
-        registerSinglePacket(RegisterRequestPacket.class);
-        registerSinglePacket(RegisterOKPacket.class);
-        registerSinglePacket(RegisterDenyPacket.class);
-    }
-
-    private final <P extends NetworkPacket> void registerSinglePacket(Class<P> packetClazz) {
-        Integer ID = PacketType.getID(packetClazz);
-        if (ID == null) {
-            PacketType.registerPacket(packetClazz);
-        }
     }
 
     @Override
     public void run() {
+        for (ServerEventLoop eventLoop : _eventLoops) {
+            eventLoop.start();
+        }
         System.out.println("Server started!");
         while (_isRunning) {
             try {
@@ -118,20 +94,11 @@ public final class TCPServer implements Runnable {
                         // accept new client
                         onClientAccept();
                     }
-                    // client is sending something
-                    if (key.isReadable()) {
-                        onClientRead(key);
-                    }
-                    // client can receive something
-                    if (key.isWritable()) {
-                        onClientWrite(key);
-                    }
                     it.remove();
                 }
-                // sleep for 1 nanosecond...
-                Thread.sleep(0, 1);
             } catch (Exception e) {
-                if (!(e instanceof java.nio.channels.CancelledKeyException)) {
+                // the selector is closed, when the server is stopped
+                if (_isRunning && !(e instanceof CancelledKeyException)) {
                     e.printStackTrace();
                 }
             }
@@ -141,21 +108,15 @@ public final class TCPServer implements Runnable {
     /*
      * STOPPING
      */
-    public void stop() {
-        if (_isRunning) {
-            _isRunning = false;
-            System.out.println("--------------------");
-            System.out.println("Stopping server...");
-            try {
-                _selector.close();
-                _serverSocket.socket().close();
-                _serverSocket.socket().getChannel().close();
-                _serverSocket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            System.out.println("Server stopped!");
-            System.out.println("--------------------");
+    @Override
+    protected void stopTransport() {
+        for (ServerEventLoop eventLoop : _eventLoops) {
+            eventLoop.stop();
+        }
+        try {
+            _selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
@@ -165,128 +126,30 @@ public final class TCPServer implements Runnable {
     private void onClientAccept() throws Exception {
         // accept new client
         SocketChannel clientSocket = _serverSocket.accept();
-
-        // Is client allowed to connect?
-        String address = clientSocket.getRemoteAddress().toString();
-
-        // Remove the port number
-        int i = address.indexOf(':');
-        if (i != -1)
-            address = address.substring(0, i);
-
-        if (address.startsWith("/")) {
-            address = address.substring(1, address.length());
-        }
-
-        // Client is not allowed to connect - refuse connection
-        if (!_addressWhitelist.contains(address)) {
-            clientSocket.close();
-            System.out.println("Client is not whitelisted: " + address);
+        if (clientSocket == null) {
             return;
         }
 
-        address = address + ":" + clientSocket.socket().getPort();
-        clientSocket.configureBlocking(false);
-        clientSocket.register(_selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE).attach(new ConnectedServerClient(address));
-        System.out.println("Client connected from: " + address);
-    }
-
-    /*
-     * READING
-     */
-    private void onClientRead(SelectionKey key) throws Exception {
-        if (!(key.channel() instanceof SocketChannel)) {
+        String address = acceptClient(clientSocket);
+        if (address == null) {
             return;
         }
 
-        // Read into the clients specific buffer
-        SocketChannel channel = (SocketChannel) key.channel();
-        ConnectedServerClient client = (ConnectedServerClient) key.attachment();
-        // When readfrom fails the client has disconnected
-        if (!client.readFrom(channel)) {
-            key.cancel();
-            _serverSidePacketHandler.unregisterClient(client);
-            System.out.println("Client '" + client.getName() + "' disconnected!");
-        }
-
-        if (_packetHandler.isPacketComplete(client.getClientBuffer())) {
-            // extract the packet
-            NetworkPacket packet = _packetHandler.extractPacket(client.getClientBuffer());
-
-            // if we have found a packet, we handle it...
-            if (packet != null) {
-                handlePacket(client, packet);
-            }
-
-            // clear the clientBuffer
-            client.getClientBuffer().clear();
-        }
-    }
-
-    // Handle a single packet
-    private <P extends NetworkPacket> void handlePacket(ConnectedServerClient client, P packet) {
-        // We have a broadcast server - broadcast all packages
-        if (packet.isBroadcastPacket()) {
-            /*
-             * CALL EVENT - BroadcastPacketReceivedEvent
-             */
-            BroadcastPacketReceivedEvent event = new BroadcastPacketReceivedEvent(packet);
-            _pluginManager.callEvent(event);
-
-            // ignore the packet, if it is cancelled
-            if (!event.isCancelled()) {
-                broadcastPacket(client, packet);
-            }
-        } else {
-            boolean result = _serverSidePacketHandler.handlePacket(client, packet);
-            if (!result) {
-                // call PacketReceivedEvent on ServerSide
-                _pluginManager.callEvent(new ServerSidePacketReceivedEvent(client, packet));
-            }
-        }
-    }
-
-    // Deliver the packet the all other clients
-    private <P extends NetworkPacket> void broadcastPacket(ConnectedServerClient src, P packet) {
-        Set<SelectionKey> keys = _selector.keys();
-
-        for (SelectionKey key : keys) {
-            if (!(key.channel() instanceof SocketChannel))
-                continue;
-
-            ConnectedServerClient client = (ConnectedServerClient) key.attachment();
-
-            // ignore if the client is the sender
-            if (client.equals(src))
-                continue;
-
-            // add packetdata to clientbuffer
-            client.sendPacket(packet);
-        }
-
-        // clear the networkBuffer
-        _networkBuffer.clear();
+        clientSocket.configureBlocking(false);
+        ServerEventLoop eventLoop = nextEventLoop();
+        eventLoop.register(new ConnectedServerClient(address, clientSocket, eventLoop, _eventExecutor, _writeBudget, _compressionThreshold, _packetRegistry));
     }
 
-    /*
-     * WRITING
-     */
-    private void onClientWrite(SelectionKey key) throws Exception {
-        if (!(key.channel() instanceof SocketChannel)) {
-            return;
-        }
-
-        ConnectedServerClient client = (ConnectedServerClient) key.attachment();
-        if (client.hasDataToSend()) {
-            // If write fails the client has disconnected
-            if (!client.write((SocketChannel) key.channel())) {
-                key.cancel();
+    // Choose the event loop with the fewest clients, ties are resolved round-robin
+    private ServerEventLoop nextEventLoop() {
+        ServerEventLoop result = null;
+        for (int i = 0; i < _eventLoops.length; i++) {
+            ServerEventLoop eventLoop = _eventLoops[(_nextEventLoop + i) % _eventLoops.length];
+            if (result == null || eventLoop.getClientCount() < result.getClientCount()) {
+                result = eventLoop;
             }
         }
-    }
-
-    public void setPluginManager(PluginManager pluginManager) {
-        _pluginManager = pluginManager;
-        _serverSidePacketHandler.setPluginManager(pluginManager);
+        _nextEventLoop = (_nextEventLoop + 1) % _eventLoops.length;
+        return result;
     }
 }
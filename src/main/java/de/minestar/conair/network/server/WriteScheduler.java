@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.server;
+
+/**
+ * The part of a transport, which writes the pending frames of its clients.
+ */
+interface WriteScheduler {
+
+    /**
+     * Called once a client has new data to write, until the transport calls {@link ConnectedServerClient#finishWrite()}. This method must be threadsafe.
+     * 
+     * @param client
+     *            the client
+     */
+    void scheduleWrite(ConnectedServerClient client);
+}
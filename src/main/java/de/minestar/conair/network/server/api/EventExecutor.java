@@ -18,40 +18,66 @@
 
 package de.minestar.conair.network.server.api;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 
+import de.minestar.conair.network.packets.NetworkPacket;
 import de.minestar.conair.network.server.api.annotations.Priority;
 import de.minestar.conair.network.server.api.events.Event;
 import de.minestar.conair.network.server.api.exceptions.EventException;
 
 public class EventExecutor {
 
+    private static final MethodType EXECUTOR_TYPE = MethodType.methodType(void.class, Event.class);
+
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends NetworkPacket>[] NO_PACKETS = (Class<? extends NetworkPacket>[]) new Class<?>[0];
+
     private final EventListener _eventListener;
-    private final Method _method;
+    // the listenermethod, bound to the listener
+    private final MethodHandle _handle;
     private final Priority _priority;
     private final boolean _ignoreCancelled;
+    private final boolean _async;
+    // the packets this executor is called for, empty for all packets
+    private final Class<? extends NetworkPacket>[] _packets;
 
     public EventExecutor(EventListener eventListener, Method method, Priority priority, boolean ignoreCancelled) {
+        this(eventListener, method, priority, ignoreCancelled, false);
+    }
+
+    public EventExecutor(EventListener eventListener, Method method, Priority priority, boolean ignoreCancelled, boolean async) {
+        this(eventListener, method, priority, ignoreCancelled, async, NO_PACKETS);
+    }
+
+    public EventExecutor(EventListener eventListener, Method method, Priority priority, boolean ignoreCancelled, boolean async, Class<? extends NetworkPacket>[] packets) {
         _eventListener = eventListener;
-        _method = method;
+        try {
+            method.setAccessible(true);
+            _handle = MethodHandles.lookup().unreflect(method).bindTo(eventListener).asType(EXECUTOR_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Method '" + method.getName() + "' is not accessible!", e);
+        }
         _priority = priority;
         _ignoreCancelled = ignoreCancelled;
+        _async = async;
+        _packets = packets.clone();
     }
 
     public void execute(Event event) throws EventException {
         try {
-            if (!Event.class.isAssignableFrom(event.getClass())) {
-                return;
-            }
-            _method.invoke(_eventListener, event);
-        } catch (InvocationTargetException ex) {
-            throw new EventException(ex.getCause());
+            _handle.invokeExact(event);
         } catch (Throwable t) {
             throw new EventException(t);
         }
     }
 
+    public EventListener getEventListener() {
+        return _eventListener;
+    }
+
     public Priority getPriority() {
         return _priority;
     }
@@ -59,4 +85,34 @@ public class EventExecutor {
     public boolean isIgnoreCancelled() {
         return _ignoreCancelled;
     }
+
+    public boolean isAsync() {
+        return _async;
+    }
+
+    /**
+     * @return <code>true</code>, if this executor is only called for some packets.
+     */
+    public boolean isPacketFiltered() {
+        return _packets.length > 0;
+    }
+
+    /**
+     * Check if this executor is called for a packet.
+     * 
+     * @param packetClazz
+     *            the class of the packet, <code>null</code> for unknown packets
+     * @return <code>true</code>, if the executor wants the packet.
+     */
+    public boolean acceptsPacket(Class<?> packetClazz) {
+        if (_packets.length == 0) {
+            return true;
+        }
+        for (Class<?> clazz : _packets) {
+            if (clazz == packetClazz) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
\ No newline at end of file
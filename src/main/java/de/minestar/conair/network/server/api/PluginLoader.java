@@ -35,6 +35,7 @@ import java.util.jar.JarFile;
 import de.minestar.conair.network.server.DedicatedTCPServer;
 import de.minestar.conair.network.server.api.annotations.RegisterEvent;
 import de.minestar.conair.network.server.api.events.Event;
+import de.minestar.conair.network.server.api.events.PacketEvent;
 
 public class PluginLoader {
 
@@ -147,8 +148,14 @@ public class PluginLoader {
                 continue;
             }
 
-            // set the method accessible
+            // packetfilters are only possible for packetevents
             final Class<? extends Event> eventClass = checkClass.asSubclass(Event.class);
+            if (registeredEvent.packets().length > 0 && !PacketEvent.class.isAssignableFrom(eventClass)) {
+                System.out.println("Method '" + method.getName() + "' filters packets, but does not listen to a PacketEvent!");
+                continue;
+            }
+
+            // set the method accessible
             method.setAccessible(true);
 
             // create the EventExecutor
@@ -157,7 +164,7 @@ public class PluginLoader {
                 eventList = new ArrayList<EventExecutor>();
                 executorMap.put(eventClass, eventList);
             }
-            EventExecutor executor = new EventExecutor(eventListener, method, registeredEvent.priority(), registeredEvent.ignoreCancelled());
+            EventExecutor executor = new EventExecutor(eventListener, method, registeredEvent.priority(), registeredEvent.ignoreCancelled(), registeredEvent.async(), registeredEvent.packets());
             eventList.add(executor);
         }
         return executorMap;
@@ -20,13 +20,19 @@ package de.minestar.conair.network.server.api;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import de.minestar.conair.network.PacketRegistry;
 import de.minestar.conair.network.server.DedicatedTCPServer;
 import de.minestar.conair.network.server.api.events.Cancellable;
 import de.minestar.conair.network.server.api.events.Event;
+import de.minestar.conair.network.server.api.events.PacketEvent;
+import de.minestar.conair.network.utils.IntMap;
 import de.minestar.conair.network.server.api.exceptions.EventException;
 
 public class PluginManager {
@@ -34,9 +40,22 @@ public class PluginManager {
     private PluginLoader _pluginLoader;
     private DedicatedTCPServer _dedicatedTCPServer;
     private final String _pluginFolder;
+    private final PacketRegistry _packetRegistry;
 
     private HashMap<String, ServerPlugin> _pluginMap;
-    private final Map<String, List<EventExecutor>> _registeredEvents = new HashMap<String, List<EventExecutor>>();
+
+    private static final EventExecutor[] NO_EXECUTORS = new EventExecutor[0];
+    private static final Comparator<EventExecutor> PRIORITY_ORDER = new Comparator<EventExecutor>() {
+        @Override
+        public int compare(EventExecutor e1, EventExecutor e2) {
+            return Integer.compare(e1.getPriority().getID(), e2.getPriority().getID());
+        }
+    };
+
+    // all registered executors in order of registration, only changed while holding the lock
+    private final List<RegisteredExecutor> _registeredEvents = new ArrayList<RegisteredExecutor>();
+    // the sorted executors per concrete eventclass, replaced on every registration
+    private volatile Map<Class<?>, DispatchEntry> _dispatchTable = new ConcurrentHashMap<Class<?>, DispatchEntry>();
 
     public PluginManager(DedicatedTCPServer dedicatedTCPServer) {
         this(dedicatedTCPServer, "plugins" + System.getProperty("file.separator"));
@@ -47,6 +66,7 @@ public class PluginManager {
         _pluginMap = new HashMap<String, ServerPlugin>();
         _dedicatedTCPServer = dedicatedTCPServer;
         _pluginFolder = pluginFolder;
+        _packetRegistry = dedicatedTCPServer != null ? dedicatedTCPServer.getPacketRegistry() : PacketRegistry.getDefault();
     }
 
     public void loadPlugins() {
@@ -147,17 +167,41 @@ public class PluginManager {
      * @param executor
      */
     private void registerSingleEvent(EventListener eventListener, ServerPlugin serverPlugin, Class<? extends Event> clazz, EventExecutor executor) {
-        // get the current list for the eventclass
-        List<EventExecutor> executorList = _registeredEvents.get(clazz.getSimpleName());
+        synchronized (_registeredEvents) {
+            _registeredEvents.add(new RegisteredExecutor(clazz, executor));
+            // running events keep their old executors, all following events use the new table
+            _dispatchTable = new ConcurrentHashMap<Class<?>, DispatchEntry>();
+        }
+    }
 
-        // create a new list, if there is none
-        if (executorList == null) {
-            executorList = new ArrayList<EventExecutor>();
-            _registeredEvents.put(clazz.getSimpleName(), executorList);
+    /**
+     * Get the executors of an event, sorted by their priority. This includes the executors of all superclasses and interfaces of the event.
+     * 
+     * @param clazz
+     *            the concrete eventclass
+     * @return the executors, which must not be modified.
+     */
+    private DispatchEntry getEntry(Class<? extends Event> clazz) {
+        final Map<Class<?>, DispatchEntry> dispatchTable = _dispatchTable;
+        DispatchEntry entry = dispatchTable.get(clazz);
+        if (entry != null) {
+            return entry;
         }
 
-        // add the EventExecutor to the list
-        executorList.add(executor);
+        synchronized (_registeredEvents) {
+            List<EventExecutor> executorList = new ArrayList<EventExecutor>();
+            for (RegisteredExecutor registered : _registeredEvents) {
+                if (registered._eventClass.isAssignableFrom(clazz)) {
+                    executorList.add(registered._executor);
+                }
+            }
+            EventExecutor[] executors = executorList.isEmpty() ? NO_EXECUTORS : executorList.toArray(new EventExecutor[executorList.size()]);
+            // the sort is stable, so executors with the same priority keep their order of registration
+            Arrays.sort(executors, PRIORITY_ORDER);
+            entry = new DispatchEntry(executors);
+            dispatchTable.put(clazz, entry);
+        }
+        return entry;
     }
 
     public DedicatedTCPServer getDedicatedTCPServer() {
@@ -168,14 +212,67 @@ public class PluginManager {
         return _pluginFolder;
     }
 
-    public void callEvent(Event event) {
-        // get the current list for the eventclass
-        List<EventExecutor> executorList = _registeredEvents.get(event.getClass().getSimpleName());
+    /**
+     * Check if any plugin listens for an event. Events without listeners do not need to be created at all.
+     * 
+     * @param clazz
+     *            the eventclass
+     * @return <code>true</code>, if there is at least one listener.
+     */
+    public boolean hasListeners(Class<? extends Event> clazz) {
+        return getEntry(clazz)._executors.length > 0;
+    }
+
+    /**
+     * Check if any plugin listens for a packetevent with the given packet.
+     * 
+     * @param clazz
+     *            the eventclass
+     * @param packetID
+     *            the ID of the packet
+     * @return <code>true</code>, if there is at least one listener.
+     */
+    public boolean hasListeners(Class<? extends PacketEvent> clazz, int packetID) {
+        return getEntry(clazz).getExecutors(_packetRegistry, packetID).length > 0;
+    }
 
-        // return, if there is no event
-        if (executorList == null) {
-            return;
+    /**
+     * Check if any listener of an event is async. Such events must not be called on a network thread.
+     * 
+     * @param clazz
+     *            the eventclass
+     * @return <code>true</code>, if there is at least one async listener.
+     */
+    public boolean isAsync(Class<? extends Event> clazz) {
+        return isAsync(getEntry(clazz)._executors);
+    }
+
+    /**
+     * Check if any listener of a packetevent with the given packet is async.
+     * 
+     * @param clazz
+     *            the eventclass
+     * @param packetID
+     *            the ID of the packet
+     * @return <code>true</code>, if there is at least one async listener.
+     */
+    public boolean isAsync(Class<? extends PacketEvent> clazz, int packetID) {
+        return isAsync(getEntry(clazz).getExecutors(_packetRegistry, packetID));
+    }
+
+    private static boolean isAsync(EventExecutor[] executors) {
+        for (EventExecutor executor : executors) {
+            if (executor.isAsync()) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    public void callEvent(Event event) {
+        // get the current executors for the eventclass and the packet
+        DispatchEntry entry = getEntry(event.getClass());
+        EventExecutor[] executorList = event instanceof PacketEvent ? entry.getExecutors(_packetRegistry, ((PacketEvent) event).getPacketID()) : entry._executors;
 
         if (event instanceof Cancellable) {
             Cancellable cancelEvent = (Cancellable) event;
@@ -203,4 +300,65 @@ public class PluginManager {
             }
         }
     }
+
+    // the executors of a single eventclass
+    private static final class DispatchEntry {
+
+        private final EventExecutor[] _executors;
+        private final boolean _isPacketFiltered;
+        // the executors per packet, only for registered packets
+        private volatile IntMap<EventExecutor[]> _executorsByPacket;
+
+        private DispatchEntry(EventExecutor[] executors) {
+            _executors = executors;
+            boolean isPacketFiltered = false;
+            for (EventExecutor executor : executors) {
+                isPacketFiltered |= executor.isPacketFiltered();
+            }
+            _isPacketFiltered = isPacketFiltered;
+            _executorsByPacket = new IntMap<EventExecutor[]>();
+        }
+
+        private EventExecutor[] getExecutors(PacketRegistry packetRegistry, int packetID) {
+            // every executor wants every packet
+            if (!_isPacketFiltered) {
+                return _executors;
+            }
+            IntMap<EventExecutor[]> executorsByPacket = _executorsByPacket;
+            EventExecutor[] executors = executorsByPacket.get(packetID);
+            if (executors != null) {
+                return executors;
+            }
+
+            Class<?> packetClazz = packetRegistry.getClassByID(packetID);
+            List<EventExecutor> executorList = new ArrayList<EventExecutor>();
+            for (EventExecutor executor : _executors) {
+                if (executor.acceptsPacket(packetClazz)) {
+                    executorList.add(executor);
+                }
+            }
+            executors = executorList.isEmpty() ? NO_EXECUTORS : executorList.toArray(new EventExecutor[executorList.size()]);
+
+            // unknown packets may be registered later, so they are not cached
+            if (packetClazz != null) {
+                synchronized (this) {
+                    executorsByPacket = _executorsByPacket.copy();
+                    executorsByPacket.put(packetID, executors);
+                    _executorsByPacket = executorsByPacket;
+                }
+            }
+            return executors;
+        }
+    }
+
+    private static final class RegisteredExecutor {
+
+        private final Class<? extends Event> _eventClass;
+        private final EventExecutor _executor;
+
+        private RegisteredExecutor(Class<? extends Event> eventClass, EventExecutor executor) {
+            _eventClass = eventClass;
+            _executor = executor;
+        }
+    }
 }
@@ -22,10 +22,22 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import de.minestar.conair.network.packets.NetworkPacket;
+
 @Target({java.lang.annotation.ElementType.METHOD})
 @Retention(RetentionPolicy.RUNTIME)
 public @interface RegisterEvent {
     public abstract Priority priority() default Priority.NORMAL;
 
     public abstract boolean ignoreCancelled() default false;
+
+    /**
+     * Async listeners may block, for example for disk or database I/O. An event with at least one async listener is not called on the network thread, all of its listeners are called in order on an event thread. Packets of the same client are still handled in order.
+     */
+    public abstract boolean async() default false;
+
+    /**
+     * The packets a listener of a {@link de.minestar.conair.network.server.api.events.PacketEvent} is interested in. The listener is not called for any other packet. If no packet is given, the listener is called for all packets.
+     */
+    public abstract Class<? extends NetworkPacket>[] packets() default {};
 }
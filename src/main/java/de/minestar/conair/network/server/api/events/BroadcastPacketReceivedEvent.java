@@ -18,6 +18,8 @@
 
 package de.minestar.conair.network.server.api.events;
 
+import de.minestar.conair.network.EncodedFrame;
+import de.minestar.conair.network.codec.CodecContext;
 import de.minestar.conair.network.packets.NetworkPacket;
 
 public class BroadcastPacketReceivedEvent extends CancellablePacketEvent {
@@ -26,4 +28,8 @@ public class BroadcastPacketReceivedEvent extends CancellablePacketEvent {
         super(packet);
     }
 
+    public BroadcastPacketReceivedEvent(int packetID, EncodedFrame frame, CodecContext context) {
+        super(packetID, frame, context);
+    }
+
 }
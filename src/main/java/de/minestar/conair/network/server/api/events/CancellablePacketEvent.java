@@ -18,6 +18,8 @@
 
 package de.minestar.conair.network.server.api.events;
 
+import de.minestar.conair.network.EncodedFrame;
+import de.minestar.conair.network.codec.CodecContext;
 import de.minestar.conair.network.packets.NetworkPacket;
 
 public abstract class CancellablePacketEvent extends PacketEvent implements Cancellable {
@@ -29,6 +31,11 @@ public abstract class CancellablePacketEvent extends PacketEvent implements Canc
         _cancelled = false;
     }
 
+    public CancellablePacketEvent(final int packetID, final EncodedFrame frame, final CodecContext context) {
+        super(packetID, frame, context);
+        _cancelled = false;
+    }
+
     @Override
     public boolean isCancelled() {
         return _cancelled;
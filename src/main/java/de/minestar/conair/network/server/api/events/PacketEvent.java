@@ -18,21 +18,79 @@
 
 package de.minestar.conair.network.server.api.events;
 
+import de.minestar.conair.network.EncodedFrame;
+import de.minestar.conair.network.codec.CodecContext;
+import de.minestar.conair.network.codec.PacketView;
 import de.minestar.conair.network.packets.NetworkPacket;
+import de.minestar.conair.network.server.ServerPacketHandler;
 
 public abstract class PacketEvent implements Event {
 
     private NetworkPacket _packet;
+    private final int _packetID;
+    private final EncodedFrame _frame;
+    private final CodecContext _context;
+    private PacketView<NetworkPacket> _view;
 
     public PacketEvent(final NetworkPacket packet) {
         _packet = packet;
+        _packetID = packet.getPacketID();
+        _frame = null;
+        _context = null;
+    }
+
+    /**
+     * Create an event for a frame, which is only decoded when {@link #getPacket()} is called. The frame is released after the event was called, so the packet can not be decoded later.
+     * 
+     * @param packetID
+     *            the ID of the packet
+     * @param frame
+     *            the received frame
+     * @param context
+     *            the context of the sending connection
+     */
+    public PacketEvent(final int packetID, final EncodedFrame frame, final CodecContext context) {
+        _packet = null;
+        _packetID = packetID;
+        _frame = frame;
+        _context = context;
     }
 
     public NetworkPacket getPacket() {
+        if (_packet == null && _frame != null) {
+            if (getPacketView() != null) {
+                try {
+                    _packet = _view.toPacket();
+                } catch (IllegalArgumentException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                _packet = ServerPacketHandler.decodePacket(_frame.duplicate(), _context);
+            }
+        }
         return _packet;
     }
 
+    /**
+     * Get a view of the received packet, which reads single fields without decoding the whole packet. Listeners, which only look at some fields, do not cause the packet to be encoded again.
+     * 
+     * @return the view, or <code>null</code> if the event was created for a packet or the packettype is unknown.
+     */
+    public PacketView<NetworkPacket> getPacketView() {
+        if (_view == null && _frame != null) {
+            _view = ServerPacketHandler.createView(_packetID, _frame, _context);
+        }
+        return _view;
+    }
+
+    /**
+     * @return <code>true</code>, if the packet was decoded and may have been changed by a listener.
+     */
+    public boolean isDecoded() {
+        return _packet != null || (_view != null && _view.isMaterialized());
+    }
+
     public int getPacketID() {
-        return _packet.getPacketID();
+        return _packetID;
     }
 }
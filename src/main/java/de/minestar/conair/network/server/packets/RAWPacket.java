@@ -21,6 +21,7 @@ package de.minestar.conair.network.server.packets;
 import java.nio.ByteBuffer;
 
 import de.minestar.conair.network.PacketBuffer;
+import de.minestar.conair.network.codec.CodecContext;
 import de.minestar.conair.network.packets.NetworkPacket;
 
 public final class RAWPacket extends NetworkPacket {
@@ -30,15 +31,17 @@ public final class RAWPacket extends NetworkPacket {
 
     public RAWPacket(int packetID, ByteBuffer buffer) {
         _packetID = packetID;
-        _dataBuffer = new PacketBuffer(buffer.capacity());
+        // the packet may be kept by the plugins, so the copy is not pooled
+        _dataBuffer = new PacketBuffer(ByteBuffer.allocate(buffer.remaining()));
         _dataBuffer.writeByteBuffer(buffer);
         _dataBuffer.getBuffer().flip();
     }
 
-    public final boolean pack(PacketBuffer buffer) {
+    @Override
+    public final boolean pack(PacketBuffer buffer, CodecContext context) {
         buffer.writeInt(0); // Size
         buffer.writeInt(_packetID); // Type
-        buffer.writeByteBuffer(_dataBuffer.getBuffer()); // Content
+        buffer.writeByteBuffer(_dataBuffer.getBuffer().duplicate()); // Content
         buffer.writeInt(0, buffer.getBuffer().position()); // Write size
         buffer.put(NetworkPacket.PACKET_SEPERATOR); // Close packet
         return true;
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map with primitive int keys, so a lookup neither boxes the key nor hashes an object.
+ * <p>
+ * The map is not threadsafe. Maps which are read by several threads are never modified after they were published, changes are made on a {@link #copy()} which replaces the old map.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public final class IntMap<V> {
+
+    private int[] _keys;
+    private Object[] _values;
+    private boolean[] _used;
+    private int _size;
+
+    public IntMap() {
+        this(16);
+    }
+
+    public IntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        _keys = new int[capacity];
+        _values = new Object[capacity];
+        _used = new boolean[capacity];
+        _size = 0;
+    }
+
+    private IntMap(IntMap<V> other) {
+        _keys = Arrays.copyOf(other._keys, other._keys.length);
+        _values = Arrays.copyOf(other._values, other._values.length);
+        _used = Arrays.copyOf(other._used, other._used.length);
+        _size = other._size;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(int key) {
+        final int mask = _keys.length - 1;
+        int index = mix(key) & mask;
+        while (_used[index]) {
+            if (_keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        final int index = indexOf(key);
+        return index < 0 ? null : (V) _values[index];
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    public V put(int key, V value) {
+        final int index = indexOf(key);
+        if (index >= 0) {
+            @SuppressWarnings("unchecked")
+            final V old = (V) _values[index];
+            _values[index] = value;
+            return old;
+        }
+        if ((_size + 1) * 2 > _keys.length) {
+            resize(_keys.length * 2);
+        }
+        insert(key, value);
+        _size++;
+        return null;
+    }
+
+    public V remove(int key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        final V old = (V) _values[index];
+
+        // reinsert the following entries of the cluster, so no lookup stops at the gap
+        final int mask = _keys.length - 1;
+        _used[index] = false;
+        _values[index] = null;
+        _size--;
+        index = (index + 1) & mask;
+        while (_used[index]) {
+            final int key2 = _keys[index];
+            final Object value = _values[index];
+            _used[index] = false;
+            _values[index] = null;
+            insert(key2, value);
+            index = (index + 1) & mask;
+        }
+        return old;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return a modifiable copy of this map.
+     */
+    public IntMap<V> copy() {
+        return new IntMap<V>(this);
+    }
+
+    private void insert(int key, Object value) {
+        final int mask = _keys.length - 1;
+        int index = mix(key) & mask;
+        while (_used[index]) {
+            index = (index + 1) & mask;
+        }
+        _keys[index] = key;
+        _values[index] = value;
+        _used[index] = true;
+    }
+
+    private void resize(int capacity) {
+        final int[] keys = _keys;
+        final Object[] values = _values;
+        final boolean[] used = _used;
+        _keys = new int[capacity];
+        _values = new Object[capacity];
+        _used = new boolean[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                insert(keys[i], values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2015 MineStar.de 
+ * 
+ * This file is part of ConAir.
+ * 
+ * ConAir is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ * 
+ * ConAir is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with ConAir.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.minestar.conair.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import de.minestar.conair.network.packets.NetworkPacket;
+
+public class FrameDecoderTest {
+
+    private static final int CHAT_ID = PacketRegistry.getUniqueID("ChatPacket");
+    private static final int RESOURCE_ID = PacketRegistry.getUniqueID("ResourcePacket");
+
+    /*
+     * FRAMES
+     */
+
+    private static byte[] v1(int packetID, byte[] data) {
+        final ByteBuffer frame = ByteBuffer.allocate(EncodedFrame.HEADER_SIZE + data.length + 1);
+        frame.putInt(EncodedFrame.HEADER_SIZE + data.length);
+        frame.putInt(packetID);
+        frame.put(data);
+        frame.put(NetworkPacket.PACKET_SEPERATOR);
+        return frame.array();
+    }
+
+    private static byte[] v2(int wireID, int packetID, int flags, byte[] data) {
+        final ByteBuffer frame = ByteBuffer.allocate(FrameFormat.MAX_HEADER_SIZE + data.length);
+        FrameFormat.writeHeader(frame, wireID, packetID, flags, data.length);
+        frame.put(data);
+        frame.flip();
+        final byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] v2(int packetID, int flags, byte[] data) {
+        return v2(PacketIDMap.UNMAPPED, packetID, flags, data);
+    }
+
+    // the first fragment starts with the size of the message
+    private static byte[] firstFragment(int packetID, int messageSize, byte[] data) {
+        final ByteBuffer fragment = ByteBuffer.allocate(5 + data.length);
+        PacketBuffer.writeVarInt(fragment, messageSize);
+        fragment.put(data);
+        return v2(packetID, FrameFormat.FLAG_FRAGMENT, copyOf(fragment));
+    }
+
+    private static byte[] bytes(int size, int seed) {
+        final byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (seed + i);
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] copyOf(ByteBuffer buffer) {
+        buffer.flip();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /*
+     * DECODING
+     */
+
+    // a received frame: its packet ID and its packetdata
+    private static final class Frame {
+        private final int _packetID;
+        private final byte[] _data;
+
+        private Frame(int packetID, byte[] data) {
+            _packetID = packetID;
+            _data = data;
+        }
+    }
+
+    // every part arrives on its own, it is read until the decoder has taken all of its bytes
+    private static List<Frame> decode(FrameDecoder decoder, byte[]... reads) throws IOException {
+        final List<Frame> frames = new ArrayList<Frame>();
+        for (byte[] read : reads) {
+            final ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(read));
+            int bytes;
+            do {
+                bytes = decoder.readFrom(channel);
+                ByteBuffer frame;
+                while ((frame = decoder.nextFrame()) != null) {
+                    final byte[] data = new byte[frame.remaining()];
+                    frame.get(data);
+                    frames.add(new Frame(decoder.getPacketID(), data));
+                }
+            } while (bytes > 0);
+        }
+        return frames;
+    }
+
+    private static List<Frame> decode(byte[]... reads) throws IOException {
+        return decode(new FrameDecoder(), reads);
+    }
+
+    private static void assertFrame(Frame frame, int packetID, byte[] data) {
+        assertEquals(packetID, frame._packetID);
+        assertArrayEquals(data, frame._data);
+    }
+
+    /*
+     * PARTIAL AND COALESCED FRAMES
+     */
+
+    @Test
+    public void coalescedFramesAreReturnedInOrder() throws IOException {
+        final List<Frame> frames = decode(concat(v1(CHAT_ID, bytes(5, 1)), v1(RESOURCE_ID, bytes(7, 2)), v1(CHAT_ID, bytes(0, 0))));
+        assertEquals(3, frames.size());
+        assertFrame(frames.get(0), CHAT_ID, bytes(5, 1));
+        assertFrame(frames.get(1), RESOURCE_ID, bytes(7, 2));
+        assertFrame(frames.get(2), CHAT_ID, new byte[0]);
+    }
+
+    @Test
+    public void partialFramesWaitForTheirTail() throws IOException {
+        final byte[] stream = concat(v1(CHAT_ID, bytes(20, 1)), v2(RESOURCE_ID, 0, bytes(300, 2)));
+        final FrameDecoder decoder = new FrameDecoder();
+        final List<Frame> frames = new ArrayList<Frame>();
+        // every single byte is a read of its own
+        for (int i = 0; i < stream.length; i++) {
+            frames.addAll(decode(decoder, new byte[] { stream[i] }));
+            if (i < 20 + EncodedFrame.HEADER_SIZE) {
+                assertEquals(0, frames.size());
+            }
+        }
+        assertEquals(2, frames.size());
+        assertFrame(frames.get(0), CHAT_ID, bytes(20, 1));
+        assertFrame(frames.get(1), RESOURCE_ID, bytes(300, 2));
+    }
+
+    @Test
+    public void frameSplitAcrossReadsWithNextFrameCoalesced() throws IOException {
+        final byte[] first = v1(CHAT_ID, bytes(10, 1));
+        final byte[] second = v2(RESOURCE_ID, 0, bytes(10, 2));
+        final byte[] stream = concat(first, second);
+        final List<Frame> frames = decode(Arrays.copyOfRange(stream, 0, 6), Arrays.copyOfRange(stream, 6, first.length + 3), Arrays.copyOfRange(stream, first.length + 3, stream.length));
+        assertEquals(2, frames.size());
+        assertFrame(frames.get(0), CHAT_ID, bytes(10, 1));
+        assertFrame(frames.get(1), RESOURCE_ID, bytes(10, 2));
+    }
+
+    @Test
+    public void frameLargerThanTheBufferGrowsIt() throws IOException {
+        final FrameDecoder decoder = new FrameDecoder(16, 4096);
+        final byte[] stream = concat(v1(CHAT_ID, bytes(1000, 1)), v2(RESOURCE_ID, 0, bytes(2000, 2)));
+        final List<Frame> frames = decode(decoder, Arrays.copyOfRange(stream, 0, 500), Arrays.copyOfRange(stream, 500, stream.length));
+        assertEquals(2, frames.size());
+        assertFrame(frames.get(0), CHAT_ID, bytes(1000, 1));
+        assertFrame(frames.get(1), RESOURCE_ID, bytes(2000, 2));
+    }
+
+    /*
+     * VERSION 1 AND VERSION 2
+     */
+
+    @Test
+    public void versionsAreMixedOnOneStream() throws IOException {
+        final FrameDecoder decoder = new FrameDecoder();
+        final PacketIDMap packetIDMap = new PacketIDMap(new String[] { "ChatPacket", "ResourcePacket" });
+        decoder.setPacketIDMap(packetIDMap);
+        final List<Frame> frames = decode(decoder, concat(v1(CHAT_ID, bytes(3, 1)), v2(packetIDMap.getWireID(RESOURCE_ID), RESOURCE_ID, 0, bytes(4, 2)), v2(CHAT_ID, 0, bytes(5, 3)), v1(RESOURCE_ID, bytes(6, 4))));
+        assertEquals(4, frames.size());
+        assertFrame(frames.get(0), CHAT_ID, bytes(3, 1));
+        assertFrame(frames.get(1), RESOURCE_ID, bytes(4, 2));
+        assertFrame(frames.get(2), CHAT_ID, bytes(5, 3));
+        assertFrame(frames.get(3), RESOURCE_ID, bytes(6, 4));
+    }
+
+    @Test
+    public void knownFlagsAreReturned() throws IOException {
+        final FrameCompression compression = new FrameCompression(1, Deflater.BEST_SPEED);
+        final byte[] data = new byte[64];
+        final ByteBuffer compressed = compression.compress(ByteBuffer.wrap(data));
+        final byte[] packetData = new byte[compressed.remaining()];
+        compressed.get(packetData);
+        BufferPool.getHeap().release(compressed);
+        final FrameDecoder decoder = new FrameDecoder();
+        decoder.setCompression(compression);
+        final List<Frame> frames = decode(decoder, v2(CHAT_ID, FrameFormat.FLAG_COMPRESSED, packetData));
+        assertEquals(1, frames.size());
+        assertFrame(frames.get(0), CHAT_ID, data);
+        assertEquals(FrameFormat.FLAG_COMPRESSED, decoder.getFlags());
+    }
+
+    @Test(expected = IOException.class)
+    public void wireIDWithoutMapIsRejected() throws IOException {
+        decode(v2(1, CHAT_ID, 0, bytes(4, 1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownWireIDIsRejected() throws IOException {
+        final FrameDecoder decoder = new FrameDecoder();
+        decoder.setPacketIDMap(new PacketIDMap(new String[] { "ChatPacket" }));
+        decode(decoder, v2(5, CHAT_ID, 0, bytes(4, 1)));
+    }
+
+    /*
+     * INVALID FRAMES
+     */
+
+    @Test(expected = IOException.class)
+    public void oversizedVersion1FrameIsRejected() throws IOException {
+        final FrameDecoder decoder = new FrameDecoder(64, 1024);
+        decode(decoder, new byte[] { 0, 0, 4, 0, 0, 0, 0, 1 });
+    }
+
+    @Test(expected = IOException.class)
+    public void version1FrameSmallerThanItsHeaderIsRejected() throws IOException {
+        decode(new byte[] { 0, 0, 0, 7, 0, 0, 0, 1, NetworkPacket.PACKET_SEPERATOR });
+    }
+
+    @Test(expected = IOException.class)
+    public void unterminatedVersion1FrameIsRejected() throws IOException {
+        final byte[] frame = v1(CHAT_ID, bytes(4, 1));
+        frame[frame.length - 1] = 0;
+        decode(frame);
+    }
+
+    @Test(expected = IOException.class)
+    public void oversizedVersion2FrameIsRejected() throws IOException {
+        final FrameDecoder decoder = new FrameDecoder(64, 1024);
+        // varint 2048
+        decode(decoder, new byte[] { (byte) 0x80, 0x10, 0 });
+    }
+
+    @Test(expected = IOException.class)
+    public void overlongVarIntLengthIsRejected() throws IOException {
+        decode(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01 });
+    }
+
+    @Test
+    public void incompleteVarIntLengthWaitsForItsTail() throws IOException {
+        final byte[] frame = v2(CHAT_ID, 0, bytes(200, 1));
+        final FrameDecoder decoder = new FrameDecoder();
+        assertEquals(0, decode(decoder, new byte[] { frame[0] }).size());
+        final List<Frame> frames = decode(decoder, Arrays.copyOfRange(frame, 1, frame.length));
+        assertEquals(1, frames.size());
+        assertFrame(frames.get(0), CHAT_ID, bytes(200, 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void headerLongerThanItsFrameIsRejected() throws IOException {
+        // length 2, type UNMAPPED with flags, flags 0 and no room for the packet ID
+        decode(new byte[] { 2, 1, 0 });
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFlagsAreRejected() throws IOException {
+        decode(v2(CHAT_ID, 0x80, bytes(4, 1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void compressionWithoutNegotiationIsRejected() throws IOException {
+        decode(v2(CHAT_ID, FrameFormat.FLAG_COMPRESSED, bytes(4, 1)));
+    }
+
+    /*
+     * FRAGMENTS
+     */
+
+    @Test
+    public void fragmentsAreReassembledAroundOtherFrames() throws IOException {
+        final byte[] message = bytes(30, 7);
+        final FrameDecoder decoder = new FrameDecoder();
+        final List<Frame> frames = decode(decoder, concat(firstFragment(RESOURCE_ID, 30, Arrays.copyOfRange(message, 0, 10)), v1(CHAT_ID, bytes(2, 1)), v2(RESOURCE_ID, FrameFormat.FLAG_FRAGMENT, Arrays.copyOfRange(message, 10, 20)), v2(CHAT_ID, 0, bytes(3, 2))), v2(RESOURCE_ID, FrameFormat.FLAG_FRAGMENT, Arrays.copyOfRange(message, 20, 30)));
+        assertEquals(3, frames.size());
+        assertFrame(frames.get(0), CHAT_ID, bytes(2, 1));
+        assertFrame(frames.get(1), CHAT_ID, bytes(3, 2));
+        assertFrame(frames.get(2), RESOURCE_ID, message);
+        assertEquals(0, decoder.getFlags());
+    }
+
+    @Test
+    public void messageLargerThanTheBufferIsReassembled() throws IOException {
+        final byte[] message = bytes(3000, 3);
+        final FrameDecoder decoder = new FrameDecoder(256, 1024);
+        decoder.setMaxMessageSize(4096);
+        final List<Frame> frames = new ArrayList<Frame>();
+        frames.addAll(decode(decoder, firstFragment(RESOURCE_ID, message.length, Arrays.copyOfRange(message, 0, 1000))));
+        frames.addAll(decode(decoder, v2(RESOURCE_ID, FrameFormat.FLAG_FRAGMENT, Arrays.copyOfRange(message, 1000, 2000))));
+        assertEquals(0, frames.size());
+        frames.addAll(decode(decoder, v2(RESOURCE_ID, FrameFormat.FLAG_FRAGMENT, Arrays.copyOfRange(message, 2000, 3000))));
+        assertEquals(1, frames.size());
+        assertFrame(frames.get(0), RESOURCE_ID, message);
+    }
+
+    @Test(expected = IOException.class)
+    public void fragmentExceedingItsMessageIsRejected() throws IOException {
+        decode(concat(firstFragment(RESOURCE_ID, 10, bytes(6, 1)), v2(RESOURCE_ID, FrameFormat.FLAG_FRAGMENT, bytes(5, 2))));
+    }
+
+    @Test(expected = IOException.class)
+    public void fragmentOfAnotherMessageIsRejected() throws IOException {
+        decode(concat(firstFragment(RESOURCE_ID, 10, bytes(6, 1)), v2(CHAT_ID, FrameFormat.FLAG_FRAGMENT, bytes(4, 2))));
+    }
+
+    @Test(expected = IOException.class)
+    public void messageLargerThanTheMaximumIsRejected() throws IOException {
+        final FrameDecoder decoder = new FrameDecoder();
+        decoder.setMaxMessageSize(100);
+        decode(decoder, firstFragment(RESOURCE_ID, 101, bytes(10, 1)));
+    }
+
+    @Test
+    public void nextMessageStartsAfterACompleteOne() throws IOException {
+        final List<Frame> frames = decode(concat(firstFragment(RESOURCE_ID, 4, bytes(4, 1)), firstFragment(CHAT_ID, 6, bytes(3, 2)), v2(CHAT_ID, FrameFormat.FLAG_FRAGMENT, bytes(3, 5))));
+        assertEquals(2, frames.size());
+        assertFrame(frames.get(0), RESOURCE_ID, bytes(4, 1));
+        assertFrame(frames.get(1), CHAT_ID, bytes(6, 2));
+    }
+
+    @Test
+    public void emptyReadReturnsNoFrame() throws IOException {
+        final FrameDecoder decoder = new FrameDecoder();
+        decoder.readFrom(Channels.newChannel(new ByteArrayInputStream(new byte[0])));
+        assertNull(decoder.nextFrame());
+    }
+}